@@ -47,7 +47,7 @@ public class AnswerPresenter extends Presenter<AnswerPresenter.AnswerUi>
         }
 
         // Listen for incoming calls.
-        calls.addListener(this);
+        calls.addListener(this, CallList.LISTEN_INCOMING);
     }
 
     @Override
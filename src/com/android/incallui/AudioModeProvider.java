@@ -16,23 +16,31 @@
 
 package com.android.incallui;
 
-import com.google.android.collect.Lists;
-
 import com.android.services.telephony.common.AudioMode;
 
-import java.util.List;
-
-
 /**
  * Proxy class for getting and setting the audio mode.
  */
 /* package */ class AudioModeProvider {
 
+    /** {@link AudioModeListener#onAudioMode} */
+    public static final int LISTEN_AUDIO_MODE = 1 << 0;
+    /** {@link AudioModeListener#onMute} */
+    public static final int LISTEN_MUTE = 1 << 1;
+    /** {@link AudioModeListener#onSupportedAudioMode} */
+    public static final int LISTEN_SUPPORTED_MODES = 1 << 2;
+    public static final int LISTEN_ALL = LISTEN_AUDIO_MODE | LISTEN_MUTE | LISTEN_SUPPORTED_MODES;
+
     private static AudioModeProvider sAudioModeProvider = new AudioModeProvider();
     private int mAudioMode = AudioMode.EARPIECE;
     private boolean mMuted = false;
     private int mSupportedModes = AudioMode.ALL_MODES;
-    private final List<AudioModeListener> mListeners = Lists.newArrayList();
+    private final ListenerList<AudioModeListener> mAudioModeListeners =
+            new ListenerList<AudioModeListener>();
+    private final ListenerList<AudioModeListener> mMuteListeners =
+            new ListenerList<AudioModeListener>();
+    private final ListenerList<AudioModeListener> mSupportedModesListeners =
+            new ListenerList<AudioModeListener>();
 
     public static AudioModeProvider getInstance() {
         return sAudioModeProvider;
@@ -41,15 +49,17 @@ import java.util.List;
     public void onAudioModeChange(int newMode, boolean muted) {
         if (mAudioMode != newMode) {
             mAudioMode = newMode;
-            for (AudioModeListener l : mListeners) {
-                l.onAudioMode(mAudioMode);
+            final Object[] listeners = mAudioModeListeners.array();
+            for (int i = 0; i < listeners.length; i++) {
+                ((AudioModeListener) listeners[i]).onAudioMode(mAudioMode);
             }
         }
 
         if (mMuted != muted) {
             mMuted = muted;
-            for (AudioModeListener l : mListeners) {
-                l.onMute(mMuted);
+            final Object[] listeners = mMuteListeners.array();
+            for (int i = 0; i < listeners.length; i++) {
+                ((AudioModeListener) listeners[i]).onMute(mMuted);
             }
         }
     }
@@ -57,24 +67,38 @@ import java.util.List;
     public void onSupportedAudioModeChange(int newModeMask) {
         mSupportedModes = newModeMask;
 
-        for (AudioModeListener l : mListeners) {
-            l.onSupportedAudioMode(mSupportedModes);
+        final Object[] listeners = mSupportedModesListeners.array();
+        for (int i = 0; i < listeners.length; i++) {
+            ((AudioModeListener) listeners[i]).onSupportedAudioMode(mSupportedModes);
         }
     }
 
     public void addListener(AudioModeListener listener) {
-        if (!mListeners.contains(listener)) {
-            mListeners.add(listener);
+        addListener(listener, LISTEN_ALL);
+    }
+
+    /**
+     * Adds a listener that is only called for the given events. The listener is told the
+     * current value of each of them right away.
+     *
+     * @param events Combination of the LISTEN_* flags.
+     */
+    public void addListener(AudioModeListener listener, int events) {
+        if ((events & LISTEN_SUPPORTED_MODES) != 0 && mSupportedModesListeners.add(listener)) {
             listener.onSupportedAudioMode(mSupportedModes);
+        }
+        if ((events & LISTEN_AUDIO_MODE) != 0 && mAudioModeListeners.add(listener)) {
             listener.onAudioMode(mAudioMode);
+        }
+        if ((events & LISTEN_MUTE) != 0 && mMuteListeners.add(listener)) {
             listener.onMute(mMuted);
         }
     }
 
     public void removeListener(AudioModeListener listener) {
-        if (mListeners.contains(listener)) {
-            mListeners.remove(listener);
-        }
+        mAudioModeListeners.remove(listener);
+        mMuteListeners.remove(listener);
+        mSupportedModesListeners.remove(listener);
     }
 
     public int getSupportedModes() {
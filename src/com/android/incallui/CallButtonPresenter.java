@@ -53,6 +53,12 @@ public class CallButtonPresenter extends Presenter<CallButtonPresenter.CallButto
     private InCallState mPreviousState = null;
     private InCallState mStateBeforeDisconnect = null;
 
+    // Call fields the buttons depend on; other changes do not require a refresh.
+    private static final int SNAPSHOT_FIELDS = CallListSnapshot.CHANGED_STATE
+            | CallListSnapshot.CHANGED_IDENTIFICATION | CallListSnapshot.CHANGED_CAPABILITIES
+            | CallListSnapshot.CHANGED_CONFERENCE | CallListSnapshot.CHANGED_SUBSCRIPTION;
+    private long mLastSnapshotVersion = CallListSnapshot.INVALID_VERSION;
+
     public CallButtonPresenter() {
     }
 
@@ -76,10 +82,18 @@ public class CallButtonPresenter extends Presenter<CallButtonPresenter.CallButto
         AudioModeProvider.getInstance().removeListener(this);
         InCallPresenter.getInstance().removeIncomingCallListener(this);
         CallList.getInstance().removeActiveSubChangeListener(this);
+        mLastSnapshotVersion = CallListSnapshot.INVALID_VERSION;
     }
 
     @Override
     public void onStateChange(InCallState state, CallList callList) {
+        final CallListSnapshot snapshot = callList.getSnapshot();
+        if (state == mPreviousState
+                && snapshot.isUnchangedSince(mLastSnapshotVersion, SNAPSHOT_FIELDS)) {
+            return;
+        }
+        mLastSnapshotVersion = snapshot.getVersion();
+
         if (state == InCallState.DISCONNECTING && mPreviousState != InCallState.DISCONNECTING) {
             mStateBeforeDisconnect = mPreviousState;
         }
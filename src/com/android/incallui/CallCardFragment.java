@@ -87,6 +87,8 @@ public class CallCardFragment extends BaseFragment<CallCardPresenter, CallCardPr
     // Cached DisplayMetrics density.
     private float mDensity;
 
+    // Inflated from mVideoCallPanelStub the first time a video call is shown.
+    private ViewStub mVideoCallPanelStub;
     private VideoCallPanel mVideoCallPanel;
     private boolean mAudioDeviceInitialized = false;
 
@@ -222,7 +224,7 @@ public class CallCardFragment extends BaseFragment<CallCardPresenter, CallCardPr
         mSubscriptionId = (TextView) view.findViewById(R.id.subId);
         mSupplementaryInfoContainer =
             (ViewGroup) view.findViewById(R.id.supplementary_info_container);
-        mVideoCallPanel = (VideoCallPanel) view.findViewById(R.id.videoCallPanel);
+        mVideoCallPanelStub = (ViewStub) view.findViewById(R.id.videoCallPanelStub);
         mCallRecordingTimer = (TextView) view.findViewById(R.id.callRecordingTimer);
 
         CallRecorder recorder = CallRecorder.getInstance();
@@ -718,7 +720,7 @@ public class CallCardFragment extends BaseFragment<CallCardPresenter, CallCardPr
     private void updateVideoCallState(int callState, int callType) {
         log("  - Videocall.state: " + callState);
 
-        if (mVideoCallPanel == null) {
+        if (getVideoCallPanel() == null) {
             loge("VideocallPanel is null");
             return;
         }
@@ -748,6 +750,18 @@ public class CallCardFragment extends BaseFragment<CallCardPresenter, CallCardPr
         }
     }
 
+    /**
+     * Returns the video call panel, inflating it on first use. The panel sets up the camera
+     * when inflated, so voice calls never create it.
+     */
+    private VideoCallPanel getVideoCallPanel() {
+        if (mVideoCallPanel == null && mVideoCallPanelStub != null) {
+            mVideoCallPanel = (VideoCallPanel) mVideoCallPanelStub.inflate();
+            mVideoCallPanelStub = null;
+        }
+        return mVideoCallPanel;
+    }
+
     /**
      * If this is a video call then hide the photo widget and show the video
      * call panel
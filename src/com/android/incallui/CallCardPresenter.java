@@ -59,19 +59,18 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
     private Call mSecondary;
     private ContactCacheEntry mPrimaryContactInfo;
     private ContactCacheEntry mSecondaryContactInfo;
-    private CallTimer mCallTimer;
+    private final TickScheduler.TickListener mCallTimeListener =
+            new TickScheduler.TickListener() {
+        @Override
+        public void onTick(long uptimeMillis) {
+            updateCallTime();
+        }
+    };
     private Context mContext;
 
-    public CallCardPresenter() {
-        // create the call timer
-        mCallTimer = new CallTimer(new Runnable() {
-            @Override
-            public void run() {
-                updateCallTime();
-            }
-        });
-    }
-
+    // Last state and call list snapshot rendered by onStateChange().
+    private InCallState mLastState;
+    private long mLastSnapshotVersion = CallListSnapshot.INVALID_VERSION;
 
     public void init(Context context, Call call) {
         mContext = Preconditions.checkNotNull(context);
@@ -96,7 +95,7 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
     public void onUiReady(CallCardUi ui) {
         super.onUiReady(ui);
 
-        AudioModeProvider.getInstance().addListener(this);
+        AudioModeProvider.getInstance().addListener(this, AudioModeProvider.LISTEN_AUDIO_MODE);
 
         // Contact search may have completed before ui is ready.
         if (mPrimaryContactInfo != null) {
@@ -117,10 +116,13 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
         InCallPresenter.getInstance().removeIncomingCallListener(this);
 
         AudioModeProvider.getInstance().removeListener(this);
+        TickScheduler.getInstance().unsubscribe(mCallTimeListener);
 
         mPrimary = null;
         mPrimaryContactInfo = null;
         mSecondaryContactInfo = null;
+        mLastState = null;
+        mLastSnapshotVersion = CallListSnapshot.INVALID_VERSION;
     }
 
     @Override
@@ -137,6 +139,15 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
             return;
         }
 
+        final CallListSnapshot snapshot = callList.getSnapshot();
+        if (state == mLastState && snapshot.isUnchangedSince(mLastSnapshotVersion,
+                CallListSnapshot.CHANGED_ALL)) {
+            Log.d(this, "Calls unchanged since last update, skipping");
+            return;
+        }
+        mLastState = state;
+        mLastSnapshotVersion = snapshot.getVersion();
+
         Call primary = null;
         Call secondary = null;
 
@@ -201,10 +212,12 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
         // Start/Stop the call time update timer
         if (mPrimary != null && mPrimary.getState() == Call.State.ACTIVE) {
             Log.d(this, "Starting the calltime timer");
-            mCallTimer.start(CALL_TIME_UPDATE_INTERVAL);
+            TickScheduler.getInstance().subscribe(mCallTimeListener, CALL_TIME_UPDATE_INTERVAL,
+                    0);
+            updateCallTime();
         } else {
             Log.d(this, "Canceling the calltime timer");
-            mCallTimer.cancel();
+            TickScheduler.getInstance().unsubscribe(mCallTimeListener);
             ui.setPrimaryCallElapsedTime(false, null);
         }
 
@@ -251,7 +264,7 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
             if (ui != null) {
                 ui.setPrimaryCallElapsedTime(false, null);
             }
-            mCallTimer.cancel();
+            TickScheduler.getInstance().unsubscribe(mCallTimeListener);
         } else {
             final long callStart = mPrimary.getConnectTime();
             final long duration = System.currentTimeMillis() - callStart;
@@ -533,6 +546,6 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
     }
 
     public int getActiveSubscription() {
-        return CallCommandClient.getInstance().getActiveSubscription();
+        return CallList.getInstance().getActiveSubscription();
     }
 }
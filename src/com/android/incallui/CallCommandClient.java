@@ -16,7 +16,13 @@
 
 package com.android.incallui;
 
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 
 import com.android.internal.telephony.MSimConstants;
@@ -24,9 +30,19 @@ import com.android.internal.telephony.MSimConstants;
 import com.android.services.telephony.common.AudioMode;
 import com.android.services.telephony.common.ICallCommandService;
 import com.android.services.telephony.common.Call;
+import com.google.android.collect.Maps;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Main interface for phone related commands.
+ * <p>
+ * Commands are queued and sent to the phone process in order on a dedicated thread, so callers
+ * on the main thread never wait for the binder call. Commands that set a state, such as mute or
+ * the audio mode, are coalesced: if a newer command for the same state is queued before an older
+ * one is sent, only the newer one is sent. Round-trip times are recorded per command.
  */
 public class CallCommandClient {
 
@@ -39,389 +55,479 @@ public class CallCommandClient {
         return sInstance;
     }
 
-    private ICallCommandService mCommandService;
+    // Commands slower than this are logged when they complete.
+    private static final long SLOW_COMMAND_MS = 100;
+
+    // Set from the CallHandlerService ingestion thread and read from the command thread.
+    private volatile ICallCommandService mCommandService;
+
+    private final Handler mCommandHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Number of commands queued so far that change the active subscription. Main thread only.
+    private int mActiveSubChangeCount;
+
+    // Latest queued command per coalescing key. Guarded by itself.
+    private final HashMap<String, Command> mLatestByKey = Maps.newHashMap();
+
+    // Round-trip times per command name. Guarded by itself.
+    private final HashMap<String, LatencyHistogram> mLatencies = Maps.newHashMap();
 
     private CallCommandClient() {
+        final HandlerThread thread = new HandlerThread("CallCommands",
+                Process.THREAD_PRIORITY_FOREGROUND);
+        thread.start();
+        mCommandHandler = new CommandHandler(thread.getLooper());
     }
 
     public void setService(ICallCommandService service) {
         mCommandService = service;
     }
 
-    public void answerCall(int callId) {
-        Log.i(this, "answerCall: " + callId);
-        if (mCommandService == null) {
-            Log.e(this, "Cannot answer call; CallCommandService == null");
-            return;
+    /**
+     * A queued call to {@link ICallCommandService}.
+     */
+    private abstract static class Command {
+        final String name;
+        // Non-null for commands that only the latest of is worth sending.
+        final String coalesceKey;
+        long enqueueTime;
+
+        Command(String name) {
+            this(name, null);
         }
-        try {
-            mCommandService.answerCall(callId);
-        } catch (RemoteException e) {
-            Log.e(this, "Error answering call.", e);
+
+        Command(String name, String coalesceKey) {
+            this.name = name;
+            this.coalesceKey = coalesceKey;
         }
+
+        abstract void execute(ICallCommandService service) throws RemoteException;
     }
 
-    public void rejectCall(Call call, boolean rejectWithMessage, String message) {
-        Log.i(this, "rejectCall: " + call.getCallId() +
-                ", with rejectMessage? " + rejectWithMessage);
-        if (mCommandService == null) {
-            Log.e(this, "Cannot reject call; CallCommandService == null");
-            return;
+    private class CommandHandler extends Handler {
+        CommandHandler(Looper looper) {
+            super(looper);
         }
-        try {
-            mCommandService.rejectCall(call, rejectWithMessage, message);
-        } catch (RemoteException e) {
-            Log.e(this, "Error rejecting call.", e);
+
+        @Override
+        public void handleMessage(Message msg) {
+            executeCommand((Command) msg.obj);
         }
     }
 
-    public void disconnectCall(int callId) {
-        Log.i(this, "disconnect Call: " + callId);
-        if (mCommandService == null) {
-            Log.e(this, "Cannot disconnect call; CallCommandService == null");
-            return;
-        }
-        try {
-            mCommandService.disconnectCall(callId);
-        } catch (RemoteException e) {
-            Log.e(this, "Error disconnecting call.", e);
+    private void enqueue(Command command) {
+        command.enqueueTime = SystemClock.uptimeMillis();
+        if (command.coalesceKey != null) {
+            synchronized (mLatestByKey) {
+                mLatestByKey.put(command.coalesceKey, command);
+            }
         }
+        mCommandHandler.sendMessage(mCommandHandler.obtainMessage(0, command));
     }
 
-    public void separateCall(int callId) {
-        Log.i(this, "separate Call: " + callId);
-        if (mCommandService == null) {
-            Log.e(this, "Cannot separate call; CallCommandService == null");
-            return;
-        }
-        try {
-            mCommandService.separateCall(callId);
-        } catch (RemoteException e) {
-            Log.e(this, "Error separating call.", e);
+    private void executeCommand(Command command) {
+        if (command.coalesceKey != null) {
+            synchronized (mLatestByKey) {
+                if (mLatestByKey.get(command.coalesceKey) != command) {
+                    Log.v(this, "Skipping superseded " + command.name);
+                    return;
+                }
+                mLatestByKey.remove(command.coalesceKey);
+            }
         }
-    }
 
-    public void mute(boolean onOff) {
-        Log.i(this, "mute: " + onOff);
-        if (mCommandService == null) {
-            Log.e(this, "Cannot mute call; CallCommandService == null");
+        final ICallCommandService service = mCommandService;
+        if (service == null) {
+            Log.e(this, "Cannot " + command.name + "; CallCommandService == null");
             return;
         }
+
+        final long start = SystemClock.uptimeMillis();
+        InCallTrace.beginSection(command.name);
         try {
-            mCommandService.mute(onOff);
+            command.execute(service);
         } catch (RemoteException e) {
-            Log.e(this, "Error muting phone.", e);
+            Log.e(this, "Error on " + command.name + ".", e);
+        } finally {
+            InCallTrace.endSection();
         }
-    }
+        final long end = SystemClock.uptimeMillis();
 
-    public void muteInternal(boolean onOff) {
-        Log.i(this, "muteInternal: " + onOff);
-        if (mCommandService == null) {
-            Log.e(this, "Cannot mute call; CallCommandService == null");
-            return;
+        recordLatency(command.name, end - start);
+        InCallTrace.record(command.name, end - start);
+        if (end - command.enqueueTime > SLOW_COMMAND_MS) {
+            Log.w(this, command.name + " took " + (end - start) + "ms after waiting "
+                    + (start - command.enqueueTime) + "ms in the queue");
         }
-        try {
-            mCommandService.muteInternal(onOff);
-        } catch (RemoteException e) {
-            Log.e(this, "Error muting phone.", e);
+    }
+
+    private void recordLatency(String name, long millis) {
+        synchronized (mLatencies) {
+            LatencyHistogram histogram = mLatencies.get(name);
+            if (histogram == null) {
+                histogram = new LatencyHistogram();
+                mLatencies.put(name, histogram);
+            }
+            histogram.add(millis);
         }
-     }
+    }
 
-    public void updateMuteState(int sub, boolean muted) {
-        if (mCommandService == null) {
-            Log.e(this, "Cannot updateMuteState; CallCommandService == null");
-            return;
+    /**
+     * Prints the round-trip time histogram of every command sent so far.
+     */
+    public void dumpLatencies(PrintWriter pw) {
+        synchronized (mLatencies) {
+            pw.println("CallCommandClient round-trip times (ms):");
+            for (Map.Entry<String, LatencyHistogram> entry : mLatencies.entrySet()) {
+                pw.println("  " + entry.getKey() + ": " + entry.getValue());
+            }
         }
-        try {
-            mCommandService.updateMuteState(sub, muted);
-        } catch (RemoteException e) {
-            Log.e(this, "Error updateMuteState.", e);
+    }
+
+    /**
+     * Counts samples in power-of-two millisecond buckets: [0,1), [1,2), [2,4) ... [512,inf).
+     */
+    private static final class LatencyHistogram {
+        private static final int BUCKETS = 11;
+
+        private final int[] mCounts = new int[BUCKETS];
+        private int mTotal;
+        private long mMax;
+
+        void add(long millis) {
+            int bucket = 0;
+            while (bucket < BUCKETS - 1 && millis >= (1L << bucket)) {
+                bucket++;
+            }
+            mCounts[bucket]++;
+            mTotal++;
+            mMax = Math.max(mMax, millis);
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append("n=").append(mTotal).append(" max=").append(mMax).append(" [");
+            for (int i = 0; i < BUCKETS; i++) {
+                if (i > 0) {
+                    sb.append(' ');
+                }
+                sb.append(i == 0 ? "<1" : "<" + (1 << i)).append(':').append(mCounts[i]);
+            }
+            return sb.append(']').toString();
         }
     }
 
-    public void hold(int callId, boolean onOff) {
+    public void answerCall(final int callId) {
+        Log.i(this, "answerCall: " + callId);
+        enqueue(new Command("answerCall") {
+            @Override
+            void execute(ICallCommandService service) throws RemoteException {
+                service.answerCall(callId);
+            }
+        });
+    }
+
+    public void rejectCall(final Call call, final boolean rejectWithMessage,
+            final String message) {
+        Log.i(this, "rejectCall: " + call.getCallId() +
+                ", with rejectMessage? " + rejectWithMessage);
+        enqueue(new Command("rejectCall") {
+            @Override
+            void execute(ICallCommandService service) throws RemoteException {
+                service.rejectCall(call, rejectWithMessage, message);
+            }
+        });
+    }
+
+    public void disconnectCall(final int callId) {
+        Log.i(this, "disconnect Call: " + callId);
+        enqueue(new Command("disconnectCall") {
+            @Override
+            void execute(ICallCommandService service) throws RemoteException {
+                service.disconnectCall(callId);
+            }
+        });
+    }
+
+    public void separateCall(final int callId) {
+        Log.i(this, "separate Call: " + callId);
+        enqueue(new Command("separateCall") {
+            @Override
+            void execute(ICallCommandService service) throws RemoteException {
+                service.separateCall(callId);
+            }
+        });
+    }
+
+    public void mute(final boolean onOff) {
+        Log.i(this, "mute: " + onOff);
+        enqueue(new Command("mute", "mute") {
+            @Override
+            void execute(ICallCommandService service) throws RemoteException {
+                service.mute(onOff);
+            }
+        });
+    }
+
+    public void muteInternal(final boolean onOff) {
+        Log.i(this, "muteInternal: " + onOff);
+        enqueue(new Command("muteInternal", "muteInternal") {
+            @Override
+            void execute(ICallCommandService service) throws RemoteException {
+                service.muteInternal(onOff);
+            }
+        });
+    }
+
+    public void updateMuteState(final int sub, final boolean muted) {
+        enqueue(new Command("updateMuteState", "updateMuteState:" + sub) {
+            @Override
+            void execute(ICallCommandService service) throws RemoteException {
+                service.updateMuteState(sub, muted);
+            }
+        });
+    }
+
+    public void hold(final int callId, final boolean onOff) {
         Log.i(this, "hold call(" + onOff + "): " + callId);
-        if (mCommandService == null) {
-            Log.e(this, "Cannot hold call; CallCommandService == null");
-            return;
-        }
-        try {
-            mCommandService.hold(callId, onOff);
-        } catch (RemoteException e) {
-            Log.e(this, "Error holding call.", e);
-        }
+        enqueue(new Command("hold") {
+            @Override
+            void execute(ICallCommandService service) throws RemoteException {
+                service.hold(callId, onOff);
+            }
+        });
     }
 
     public void merge() {
         Log.i(this, "merge calls");
-        if (mCommandService == null) {
-            Log.e(this, "Cannot merge call; CallCommandService == null");
-            return;
-        }
-        try {
-            mCommandService.merge();
-        } catch (RemoteException e) {
-            Log.e(this, "Error merging calls.", e);
-        }
+        enqueue(new Command("merge") {
+            @Override
+            void execute(ICallCommandService service) throws RemoteException {
+                service.merge();
+            }
+        });
     }
 
     public void swap() {
         Log.i(this, "swap active/hold calls");
-        if (mCommandService == null) {
-            Log.e(this, "Cannot swap call; CallCommandService == null");
-            return;
-        }
-        try {
-            mCommandService.swap();
-        } catch (RemoteException e) {
-            Log.e(this, "Error merging calls.", e);
-        }
+        enqueue(new Command("swap") {
+            @Override
+            void execute(ICallCommandService service) throws RemoteException {
+                service.swap();
+            }
+        });
     }
 
     public void addCall() {
         Log.i(this, "add a new call");
-        if (mCommandService == null) {
-            Log.e(this, "Cannot add call; CallCommandService == null");
-            return;
-        }
-        try {
-            mCommandService.addCall();
-        } catch (RemoteException e) {
-            Log.e(this, "Error merging calls.", e);
-        }
+        enqueue(new Command("addCall") {
+            @Override
+            void execute(ICallCommandService service) throws RemoteException {
+                service.addCall();
+            }
+        });
     }
 
-    public void setAudioMode(int mode) {
+    public void setAudioMode(final int mode) {
         Log.i(this, "Set Audio Mode: " + AudioMode.toString(mode));
-        if (mCommandService == null) {
-            Log.e(this, "Cannot set audio mode; CallCommandService == null");
-            return;
-        }
-        try {
-            mCommandService.setAudioMode(mode);
-        } catch (RemoteException e) {
-            Log.e(this, "Error setting speaker.", e);
-        }
+        enqueue(new Command("setAudioMode", "setAudioMode") {
+            @Override
+            void execute(ICallCommandService service) throws RemoteException {
+                service.setAudioMode(mode);
+            }
+        });
     }
 
-    public void playDtmfTone(char digit, boolean timedShortTone) {
-        if (mCommandService == null) {
-            Log.e(this, "Cannot start dtmf tone; CallCommandService == null");
-            return;
-        }
-        try {
-            Log.v(this, "Sending dtmf tone " + digit);
-            mCommandService.playDtmfTone(digit, timedShortTone);
-        } catch (RemoteException e) {
-            Log.e(this, "Error setting speaker.", e);
-        }
-
+    public void playDtmfTone(final char digit, final boolean timedShortTone) {
+        Log.v(this, "Sending dtmf tone " + digit);
+        enqueue(new Command("playDtmfTone") {
+            @Override
+            void execute(ICallCommandService service) throws RemoteException {
+                service.playDtmfTone(digit, timedShortTone);
+            }
+        });
     }
 
     public void stopDtmfTone() {
-        if (mCommandService == null) {
-            Log.e(this, "Cannot stop dtmf tone; CallCommandService == null");
-            return;
-        }
-        try {
-            Log.v(this, "Stop dtmf tone ");
-            mCommandService.stopDtmfTone();
-        } catch (RemoteException e) {
-            Log.e(this, "Error setting speaker.", e);
-        }
+        Log.v(this, "Stop dtmf tone ");
+        enqueue(new Command("stopDtmfTone") {
+            @Override
+            void execute(ICallCommandService service) throws RemoteException {
+                service.stopDtmfTone();
+            }
+        });
     }
 
-    public void postDialWaitContinue(int callId) {
-        if (mCommandService == null) {
-            Log.e(this, "Cannot postDialWaitContinue(); CallCommandService == null");
-            return;
-        }
-        try {
-            Log.v(this, "postDialWaitContinue()");
-            mCommandService.postDialWaitContinue(callId);
-        } catch (RemoteException e) {
-            Log.e(this, "Error on postDialWaitContinue().", e);
-        }
+    public void postDialWaitContinue(final int callId) {
+        Log.v(this, "postDialWaitContinue()");
+        enqueue(new Command("postDialWaitContinue") {
+            @Override
+            void execute(ICallCommandService service) throws RemoteException {
+                service.postDialWaitContinue(callId);
+            }
+        });
     }
 
-    public void postDialCancel(int callId) {
-        if (mCommandService == null) {
-            Log.e(this, "Cannot postDialCancel(); CallCommandService == null");
-            return;
-        }
-        try {
-            Log.v(this, "postDialCancel()");
-            mCommandService.postDialCancel(callId);
-        } catch (RemoteException e) {
-            Log.e(this, "Error on postDialCancel().", e);
-        }
+    public void postDialCancel(final int callId) {
+        Log.v(this, "postDialCancel()");
+        enqueue(new Command("postDialCancel") {
+            @Override
+            void execute(ICallCommandService service) throws RemoteException {
+                service.postDialCancel(callId);
+            }
+        });
     }
 
-    public void hangupWithReason(int callId, String userUri, boolean mpty,
-            int failCause, String errorInfo) {
-        if (mCommandService == null) {
-            Log.e(this, "Cannot hangupWithReason(); CallCommandService == null");
-            return;
-        }
-        try {
-            Log.v(this, "hangupWithReason() ");
-            mCommandService.hangupWithReason(callId, userUri, mpty,
-                    failCause, errorInfo);
-        } catch (RemoteException e) {
-            Log.e(this, "Error on hangupWithReason().", e);
-        }
+    public void hangupWithReason(final int callId, final String userUri, final boolean mpty,
+            final int failCause, final String errorInfo) {
+        Log.v(this, "hangupWithReason() ");
+        enqueue(new Command("hangupWithReason") {
+            @Override
+            void execute(ICallCommandService service) throws RemoteException {
+                service.hangupWithReason(callId, userUri, mpty, failCause, errorInfo);
+            }
+        });
     }
 
-    public void answerCallWithCallType(int callId,int callType){
-        if (mCommandService == null) {
-            Log.e(this, "Cannot acceptCall(); CallCommandService == null");
-            return;
-        }
-        try {
-            /*
-             * To test call deflection this property has to be set with the
-             * number to which the call should be deflected. If this property is
-             * set to a number, on pressing the UI answer button, call deflect
-             * request will be sent. This is done to provide hooks to test call
-             * deflection through the UI answer button. For commercialization UI
-             * should be customized to call this API through the Call deflect UI
-             * button By default this property is not set and Answer button will
-             * work as expected
-             * Example:
-             * To deflect call to number 12345
-             * adb shell setprop persist.radio.deflect.number 12345
-             *
-             * Toggle above property and to invoke answerCallWithCallType
-             * adb shell setprop persist.radio.deflect.number ""
-             */
-            String deflectcall = SystemProperties.get("persist.radio.deflect.number");
-            if (deflectcall != null && !deflectcall.isEmpty()) {
-                mCommandService.deflectCall(callId, deflectcall);
-            } else {
-                Log.v(this, "acceptCall() ");
-                mCommandService.answerCallWithCallType(callId, callType);
+    public void answerCallWithCallType(final int callId, final int callType) {
+        enqueue(new Command("acceptCall") {
+            @Override
+            void execute(ICallCommandService service) throws RemoteException {
+                /*
+                 * To test call deflection this property has to be set with the
+                 * number to which the call should be deflected. If this property is
+                 * set to a number, on pressing the UI answer button, call deflect
+                 * request will be sent. This is done to provide hooks to test call
+                 * deflection through the UI answer button. For commercialization UI
+                 * should be customized to call this API through the Call deflect UI
+                 * button By default this property is not set and Answer button will
+                 * work as expected
+                 * Example:
+                 * To deflect call to number 12345
+                 * adb shell setprop persist.radio.deflect.number 12345
+                 *
+                 * Toggle above property and to invoke answerCallWithCallType
+                 * adb shell setprop persist.radio.deflect.number ""
+                 */
+                String deflectcall = SystemProperties.get("persist.radio.deflect.number");
+                if (deflectcall != null && !deflectcall.isEmpty()) {
+                    service.deflectCall(callId, deflectcall);
+                } else {
+                    Log.v(CallCommandClient.this, "acceptCall() ");
+                    service.answerCallWithCallType(callId, callType);
+                }
             }
-        } catch (RemoteException e) {
-            Log.e(this, "Error on acceptCall().", e);
-        }
+        });
     }
 
-    public void deflectCall(int callId, String number) {
-        if (mCommandService == null) {
-            Log.e(this, "Cannot deflectCall(); CallCommandService == null");
-            return;
-        }
-        try{
-            Log.v(this, "deflectCall() ");
-            mCommandService.deflectCall(callId, number);
-        } catch (RemoteException e) {
-            Log.e(this, "Error on deflectCall().", e);
-        }
+    public void deflectCall(final int callId, final String number) {
+        Log.v(this, "deflectCall() ");
+        enqueue(new Command("deflectCall") {
+            @Override
+            void execute(ICallCommandService service) throws RemoteException {
+                service.deflectCall(callId, number);
+            }
+        });
     }
 
-    public void modifyCallInitiate(int callId, int callType) {
-        if (mCommandService == null) {
-            Log.e(this, "Cannot modifyCall(); CallCommandService == null");
-            return;
-        }
-        try {
-            Log.v(this, "modifyCall(), callId=" + callId + " callType=" + callType);
-            mCommandService.modifyCallInitiate(callId, callType);
-        } catch (RemoteException e) {
-            Log.e(this, "Error on modifyCall().");
-        }
+    public void modifyCallInitiate(final int callId, final int callType) {
+        Log.v(this, "modifyCall(), callId=" + callId + " callType=" + callType);
+        enqueue(new Command("modifyCall") {
+            @Override
+            void execute(ICallCommandService service) throws RemoteException {
+                service.modifyCallInitiate(callId, callType);
+            }
+        });
     }
 
-    public void modifyCallConfirm(boolean responseType, int callId) {
-        if (mCommandService == null) {
-            Log.e(this, "Cannot modifyCallConfirm(); CallCommandService == null" + responseType);
-            return;
-        }
-        try {
-            Log.v(this, "modifyCallConfirm() ");
-            mCommandService.modifyCallConfirm(responseType, callId);
-        } catch (RemoteException e) {
-            Log.e(this, "Error on modifyCallConfirm().");
-        }
+    public void modifyCallConfirm(final boolean responseType, final int callId) {
+        Log.v(this, "modifyCallConfirm() ");
+        enqueue(new Command("modifyCallConfirm") {
+            @Override
+            void execute(ICallCommandService service) throws RemoteException {
+                service.modifyCallConfirm(responseType, callId);
+            }
+        });
     }
 
-    public void setSystemBarNavigationEnabled(boolean enable) {
-        if (mCommandService == null) {
-            Log.e(this, "Cannot setSystemBarNavigationEnabled(); CallCommandService == null");
-            return;
-        }
-        try {
-            Log.v(this, "setSystemBarNavigationEnabled() enabled = " + enable);
-            mCommandService.setSystemBarNavigationEnabled(enable);
-        } catch (RemoteException e) {
-            Log.d(this, "Error on setSystemBarNavigationEnabled().");
-        }
+    public void setSystemBarNavigationEnabled(final boolean enable) {
+        Log.v(this, "setSystemBarNavigationEnabled() enabled = " + enable);
+        enqueue(new Command("setSystemBarNavigationEnabled", "setSystemBarNavigationEnabled") {
+            @Override
+            void execute(ICallCommandService service) throws RemoteException {
+                service.setSystemBarNavigationEnabled(enable);
+            }
+        });
     }
 
-    public void blacklistAndHangup(int callId) {
-        if (mCommandService == null) {
-            Log.e(this, "Cannot blacklistAndHangup(); CallCommandService == null");
-            return;
-        }
-        try {
-            mCommandService.blacklistAndHangup(callId);
-        } catch (RemoteException e) {
-            Log.e(this, "Error on blacklistAndHangup().", e);
-        }
+    public void blacklistAndHangup(final int callId) {
+        enqueue(new Command("blacklistAndHangup") {
+            @Override
+            void execute(ICallCommandService service) throws RemoteException {
+                service.blacklistAndHangup(callId);
+            }
+        });
     }
 
-    public void setActiveSubscription(int subscriptionId) {
+    public void setActiveSubscription(final int subscriptionId) {
         Log.i(this, "set active sub = " + subscriptionId);
-        if (mCommandService == null) {
-            Log.e(this, "Cannot set active Sub; CallCommandService == null");
-            return;
-        }
-        try {
-            mCommandService.setActiveSubscription(subscriptionId);
-        } catch (RemoteException e) {
-            Log.e(this, "Error setActiveSub.", e);
-        }
+        mActiveSubChangeCount++;
+        enqueue(new Command("setActiveSubscription") {
+            @Override
+            void execute(ICallCommandService service) throws RemoteException {
+                service.setActiveSubscription(subscriptionId);
+            }
+        });
     }
 
-    public void setSubInConversation(int subscriptionId) {
+    public void setSubInConversation(final int subscriptionId) {
         Log.i(this, "set conversation sub = " + subscriptionId);
-        if (mCommandService == null) {
-            Log.e(this, "Cannot set conversation Sub; CallCommandService == null");
-            return;
-        }
-        try {
-            mCommandService.setSubInConversation(subscriptionId);
-        } catch (RemoteException e) {
-            Log.e(this, "Error setSubInConversation.", e);
-        }
+        enqueue(new Command("setSubInConversation") {
+            @Override
+            void execute(ICallCommandService service) throws RemoteException {
+                service.setSubInConversation(subscriptionId);
+            }
+        });
     }
 
-    public void setActiveAndConversationSub(int subscriptionId) {
+    public void setActiveAndConversationSub(final int subscriptionId) {
         Log.i(this, "setActiveAndConversationSub = " + subscriptionId);
-        if (mCommandService == null) {
-            Log.e(this, "Cannot set active Sub; CallCommandService == null");
-            return;
-        }
-        try {
-            mCommandService.setActiveAndConversationSub(subscriptionId);
-        } catch (RemoteException e) {
-            Log.e(this, "Error setActiveSub.", e);
-        }
+        mActiveSubChangeCount++;
+        enqueue(new Command("setActiveAndConversationSub") {
+            @Override
+            void execute(ICallCommandService service) throws RemoteException {
+                service.setActiveAndConversationSub(subscriptionId);
+            }
+        });
     }
 
-    public int getActiveSubscription() {
-        int subscriptionId = MSimConstants.INVALID_SUBSCRIPTION;
-
-        if (mCommandService == null) {
-            Log.e(this, "Cannot get active sub; CallCommandService == null");
-            return subscriptionId;
-        }
-        try {
-            subscriptionId = mCommandService.getActiveSubscription();
-        } catch (RemoteException e) {
-            Log.e(this, "Error getActiveSub.", e);
-        }
-        Log.i(this, "get active sub " + subscriptionId);
-        return subscriptionId;
+    /**
+     * Reads the active subscription from the phone process, after every command already
+     * queued, and hands it to {@link CallList#setActiveSubscription} on the main thread. The
+     * answer is dropped if the active subscription was changed from here in the meantime,
+     * since CallList already has the newer value. Main thread only.
+     */
+    public void requestActiveSubscription() {
+        final int changeCount = mActiveSubChangeCount;
+        enqueue(new Command("getActiveSubscription", "getActiveSubscription") {
+            @Override
+            void execute(ICallCommandService service) throws RemoteException {
+                final int subscriptionId = service.getActiveSubscription();
+                Log.i(CallCommandClient.this, "get active sub " + subscriptionId);
+                if (subscriptionId == MSimConstants.INVALID_SUBSCRIPTION) {
+                    return;
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (changeCount == mActiveSubChangeCount) {
+                            CallList.getInstance().setActiveSubscription(subscriptionId);
+                        }
+                    }
+                });
+            }
+        });
     }
 }
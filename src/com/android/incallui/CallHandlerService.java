@@ -21,15 +21,22 @@ import android.content.Context;
 import android.content.Intent;
 import android.media.AudioManager;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.Message;
+import android.os.Process;
 
 import com.android.services.telephony.common.AudioMode;
 import com.android.services.telephony.common.Call;
 import com.android.services.telephony.common.ICallCommandService;
 import com.android.services.telephony.common.ICallHandlerService;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -53,8 +60,13 @@ public class CallHandlerService extends Service {
     private static final int ON_ACTIVE_SUB_CHANGE = 11;
     private static final int ON_UNSOL_CALLMODIFY = 12;
     private static final int ON_SUPP_SERVICE_FAIL = 13;
+    private static final int ON_FLUSH_PENDING_UPDATES = 14;
 
-    private static final int LARGEST_MSG_ID = ON_SUPP_SERVICE_FAIL;
+    private static final int LARGEST_MSG_ID = ON_FLUSH_PENDING_UPDATES;
+
+    // Call updates arriving within this window (roughly one frame) are merged and delivered
+    // to CallList as a single update, so listeners re-render once per burst.
+    private static final long UPDATE_COALESCE_WINDOW_MS = 16;
 
     private static final String VOLUME_BOOST = "volume_boost";
 
@@ -62,6 +74,20 @@ public class CallHandlerService extends Service {
     private CallList mCallList;
     private Handler mMainHandler;
     private Object mHandlerInitLock = new Object();
+
+    // Binder callbacks are first handled on this thread, which merges call updates, applies the
+    // volume boost audio parameter, and then hands finished messages to mMainHandler in the
+    // order they were received.
+    private HandlerThread mIngestionThread;
+    private Handler mIngestionHandler;
+
+    // Latest state per call id of updates that have not been handed to the main thread yet.
+    // Only touched on the ingestion thread.
+    private final LinkedHashMap<Integer, Call> mPendingUpdates =
+            new LinkedHashMap<Integer, Call>();
+    // Audio mode as last reported by the phone process, tracked on the ingestion thread.
+    private int mIngestedAudioMode;
+
     private InCallPresenter mInCallPresenter;
     private AudioModeProvider mAudioModeProvider;
     private boolean mServiceStarted = false;
@@ -73,13 +99,21 @@ public class CallHandlerService extends Service {
         Log.i(TAG, "onCreate");
         super.onCreate();
         mAudioManager = (AudioManager) getSystemService (Context.AUDIO_SERVICE);
+        // Warm the UI up again in case it was released since the last call.
+        InCallUiWarmer.getInstance(this).warmUp();
 
         synchronized(mHandlerInitLock) {
             if (mMainHandler == null) {
                 mMainHandler = new MainHandler();
             }
+            if (mIngestionHandler == null) {
+                mIngestionThread = new HandlerThread("CallHandlerIngestion",
+                        Process.THREAD_PRIORITY_FOREGROUND);
+                mIngestionThread.start();
+                mIngestionHandler = new IngestionHandler(mIngestionThread.getLooper());
+            }
         }
-
+        mIngestedAudioMode = AudioModeProvider.getInstance().getAudioMode();
     }
 
     @Override
@@ -94,7 +128,17 @@ public class CallHandlerService extends Service {
         // we cannot know which is happening.
         // Thats okay since in both cases we want to end all calls and let the UI know it can tear
         // itself down when it's ready. Start the destruction sequence.
-        mMainHandler.sendMessage(mMainHandler.obtainMessage(ON_DESTROY));
+        mIngestionHandler.sendMessage(mIngestionHandler.obtainMessage(ON_DESTROY));
+
+        // Lets ON_DESTROY and anything queued before it through, then stops the thread.
+        mIngestionThread.quitSafely();
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        CallCommandClient.getInstance().dumpLatencies(pw);
+        pw.println();
+        InCallTrace.dump(pw);
     }
 
 
@@ -120,7 +164,7 @@ public class CallHandlerService extends Service {
             try {
                 Log.d(TAG, "startCallService: " + service.toString());
 
-                mMainHandler.sendMessage(mMainHandler.obtainMessage(ON_START, service));
+                mIngestionHandler.sendMessage(mIngestionHandler.obtainMessage(ON_START, service));
             } catch (Exception e) {
                 Log.e(TAG, "Error processing setCallCommandservice() call", e);
             }
@@ -130,7 +174,8 @@ public class CallHandlerService extends Service {
         public void onDisconnect(Call call) {
             try {
                 Log.i(TAG, "onDisconnected: " + call);
-                mMainHandler.sendMessage(mMainHandler.obtainMessage(ON_DISCONNECT_CALL, call));
+                mIngestionHandler.sendMessage(mIngestionHandler.obtainMessage(
+                        ON_DISCONNECT_CALL, call));
             } catch (Exception e) {
                 Log.e(TAG, "Error processing onDisconnect() call.", e);
             }
@@ -142,7 +187,7 @@ public class CallHandlerService extends Service {
                 Log.i(TAG, "onIncomingCall: " + call);
                 Map.Entry<Call, List<String>> incomingCall
                         = new AbstractMap.SimpleEntry<Call, List<String>>(call, textResponses);
-                mMainHandler.sendMessage(mMainHandler.obtainMessage(
+                mIngestionHandler.sendMessage(mIngestionHandler.obtainMessage(
                         ON_UPDATE_CALL_WITH_TEXT_RESPONSES, incomingCall));
             } catch (Exception e) {
                 Log.e(TAG, "Error processing onIncoming() call.", e);
@@ -153,7 +198,8 @@ public class CallHandlerService extends Service {
         public void onUpdate(List<Call> calls) {
             try {
                 Log.i(TAG, "onUpdate: " + calls);
-                mMainHandler.sendMessage(mMainHandler.obtainMessage(ON_UPDATE_MULTI_CALL, calls));
+                mIngestionHandler.sendMessage(mIngestionHandler.obtainMessage(
+                        ON_UPDATE_MULTI_CALL, calls));
             } catch (Exception e) {
                 Log.e(TAG, "Error processing onUpdate() call.", e);
             }
@@ -164,7 +210,7 @@ public class CallHandlerService extends Service {
             try {
                 Log.i(TAG, "onAudioModeChange : " +
                         AudioMode.toString(mode));
-                mMainHandler.sendMessage(mMainHandler.obtainMessage(ON_AUDIO_MODE, mode,
+                mIngestionHandler.sendMessage(mIngestionHandler.obtainMessage(ON_AUDIO_MODE, mode,
                             muted ? 1 : 0, null));
             } catch (Exception e) {
                 Log.e(TAG, "Error processing onAudioModeChange() call.", e);
@@ -176,8 +222,8 @@ public class CallHandlerService extends Service {
             try {
                 Log.i(TAG, "onSupportedAudioModeChange : " +
                         AudioMode.toString(modeMask));
-                mMainHandler.sendMessage(mMainHandler.obtainMessage(ON_SUPPORTED_AUDIO_MODE,
-                        modeMask, 0, null));
+                mIngestionHandler.sendMessage(mIngestionHandler.obtainMessage(
+                        ON_SUPPORTED_AUDIO_MODE, modeMask, 0, null));
             } catch (Exception e) {
                 Log.e(TAG, "Error processing onSupportedAudioModeChange() call.", e);
             }
@@ -185,21 +231,22 @@ public class CallHandlerService extends Service {
 
         @Override
         public void bringToForeground(boolean showDialpad) {
-            mMainHandler.sendMessage(mMainHandler.obtainMessage(ON_BRING_TO_FOREGROUND,
+            mIngestionHandler.sendMessage(mIngestionHandler.obtainMessage(ON_BRING_TO_FOREGROUND,
                     showDialpad ? 1 : 0, 0));
         }
 
         @Override
         public void onPostDialWait(int callId, String chars) {
-            mMainHandler.sendMessage(mMainHandler.obtainMessage(ON_POST_CHAR_WAIT, callId, 0,
-                    chars));
+            mIngestionHandler.sendMessage(mIngestionHandler.obtainMessage(
+                    ON_POST_CHAR_WAIT, callId, 0, chars));
         }
 
         @Override
         public void onModifyCall(Call call) {
             try {
                 Log.i(TAG, "onModifyCallResponse: " + call);
-                mMainHandler.sendMessage(mMainHandler.obtainMessage(ON_UNSOL_CALLMODIFY, call));
+                mIngestionHandler.sendMessage(mIngestionHandler.obtainMessage(
+                        ON_UNSOL_CALLMODIFY, call));
             } catch (Exception e) {
                 Log.e(TAG, "Error processing onDisconnect() call.", e);
             }
@@ -207,21 +254,93 @@ public class CallHandlerService extends Service {
 
         @Override
         public void onActiveSubChanged(int activeSub) {
-            mMainHandler.sendMessage(mMainHandler.obtainMessage(ON_ACTIVE_SUB_CHANGE, activeSub));
+            mIngestionHandler.sendMessage(mIngestionHandler.obtainMessage(
+                    ON_ACTIVE_SUB_CHANGE, activeSub));
         }
 
         @Override
         public void onSuppServiceFailed(int service) {
-            mMainHandler.sendMessage(mMainHandler.obtainMessage(ON_SUPP_SERVICE_FAIL, service));
+            mIngestionHandler.sendMessage(mIngestionHandler.obtainMessage(
+                    ON_SUPP_SERVICE_FAIL, service));
         }
 
     };
 
+    /**
+     * Prepares binder messages off the main thread: call updates are merged here, and the
+     * volume boost audio parameter, which needs an IPC of its own, is checked and reset here,
+     * so the main thread only applies the result.
+     */
+    private class IngestionHandler extends Handler {
+        IngestionHandler(Looper looper) {
+            super(looper, null, true);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            switch (msg.what) {
+                case ON_UPDATE_MULTI_CALL:
+                    queueUpdates((List<Call>) msg.obj);
+                    return;
+                case ON_FLUSH_PENDING_UPDATES:
+                    flushPendingUpdates();
+                    return;
+                case ON_START:
+                    // Set up the command service here so that it is in place before the main
+                    // thread handles this or any later message.
+                    CallCommandClient.getInstance().setService((ICallCommandService) msg.obj);
+                    break;
+                case ON_AUDIO_MODE:
+                    updateVBStatus(msg.arg1);
+                    mIngestedAudioMode = msg.arg1;
+                    break;
+                case ON_SUPPORTED_AUDIO_MODE:
+                    updateVBStatus(msg.arg1);
+                    break;
+                default:
+                    break;
+            }
+
+            // Nothing may overtake an update received before it.
+            flushPendingUpdates();
+            mMainHandler.sendMessage(mMainHandler.obtainMessage(msg.what, msg.arg1, msg.arg2,
+                    msg.obj));
+        }
+    }
+
+    /**
+     * Merges call updates into the pending set, keeping only the latest state for each call,
+     * and schedules a flush if one is not already pending.
+     */
+    private void queueUpdates(List<Call> calls) {
+        final boolean flushScheduled = !mPendingUpdates.isEmpty();
+        for (Call call : calls) {
+            mPendingUpdates.put(call.getCallId(), call);
+        }
+        if (!flushScheduled && !mPendingUpdates.isEmpty()) {
+            mIngestionHandler.sendEmptyMessageDelayed(ON_FLUSH_PENDING_UPDATES,
+                    UPDATE_COALESCE_WINDOW_MS);
+        }
+    }
+
+    /**
+     * Hands the coalesced updates to the main thread.
+     */
+    private void flushPendingUpdates() {
+        if (mPendingUpdates.isEmpty()) {
+            return;
+        }
+        mIngestionHandler.removeMessages(ON_FLUSH_PENDING_UPDATES);
+        final List<Call> calls = new ArrayList<Call>(mPendingUpdates.values());
+        mPendingUpdates.clear();
+
+        mMainHandler.sendMessage(mMainHandler.obtainMessage(ON_UPDATE_MULTI_CALL, calls));
+    }
+
     private void doStart(ICallCommandService service) {
         Log.i(TAG, "doStart");
 
-        // always setup the new callcommandservice
-        CallCommandClient.getInstance().setService(service);
+        // The new callcommandservice has already been set up by the ingestion thread.
 
         // If we have a new service when one is already started, we can continue
         // using the service that we already have.
@@ -283,7 +402,12 @@ public class CallHandlerService extends Service {
 
         @Override
         public void handleMessage(Message msg) {
-            executeMessage(msg);
+            InCallTrace.beginSection("CallHandlerService.executeMessage");
+            try {
+                executeMessage(msg);
+            } finally {
+                InCallTrace.endSection();
+            }
         }
     }
 
@@ -300,21 +424,26 @@ public class CallHandlerService extends Service {
             return;
         }
 
-        Log.d(TAG, "executeMessage " + msg.what);
+        Log.d(TAG, "executeMessage ", msg.what);
 
         switch (msg.what) {
             case ON_UPDATE_CALL:
-                Log.i(TAG, "ON_UPDATE_CALL: " + msg.obj);
+                Log.d(TAG, "ON_UPDATE_CALL: ", msg.obj);
                 mCallList.onUpdate((Call) msg.obj);
                 break;
             case ON_UPDATE_MULTI_CALL:
-                Log.i(TAG, "ON_UPDATE_MULTI_CALL: " + msg.obj);
+                Log.d(TAG, "ON_UPDATE_MULTI_CALL: ", msg.obj);
                 mCallList.onUpdate((List<Call>) msg.obj);
                 break;
             case ON_UPDATE_CALL_WITH_TEXT_RESPONSES:
                 AbstractMap.SimpleEntry<Call, List<String>> entry
                         = (AbstractMap.SimpleEntry<Call, List<String>>) msg.obj;
                 Log.i(TAG, "ON_INCOMING_CALL: " + entry.getKey());
+                InCallTrace.beginInterval(InCallTrace.INCOMING_TO_FIRST_DRAW);
+                // Start the caller lookup and photo load before CallList brings up the UI, so
+                // they run while the activity starts instead of after the call card asks.
+                ContactInfoCache.getInstance(getApplicationContext()).prefetchInfo(
+                        entry.getKey().getIdentification(), true);
                 mCallList.onIncoming(entry.getKey(), entry.getValue());
                 break;
             case ON_DISCONNECT_CALL:
@@ -327,17 +456,11 @@ public class CallHandlerService extends Service {
             case ON_AUDIO_MODE:
                 Log.i(TAG, "ON_AUDIO_MODE: " +
                         AudioMode.toString(msg.arg1) + ", muted (" + (msg.arg2 == 1) + ")");
-
-                updateVBStatus(msg.arg1);
-
                 mAudioModeProvider.onAudioModeChange(msg.arg1, msg.arg2 == 1);
                 break;
             case ON_SUPPORTED_AUDIO_MODE:
                 Log.i(TAG, "ON_SUPPORTED_AUDIO_MODE: " + AudioMode.toString(
                         msg.arg1));
-
-                updateVBStatus(msg.arg1);
-
                 mAudioModeProvider.onSupportedAudioModeChange(msg.arg1);
                 break;
             case ON_BRING_TO_FOREGROUND:
@@ -373,6 +496,7 @@ public class CallHandlerService extends Service {
 
     /**
      * Whenever call audio device change, turn off volume boost function.
+     * Runs on the ingestion thread since reading the parameter is a synchronous IPC.
      * */
     private void updateVBStatus(int newMode) {
         /* When normal call audio mode changed, disable the volume boost */
@@ -381,7 +505,7 @@ public class CallHandlerService extends Service {
             return;
         }
 
-        if (newMode != mAudioModeProvider.getAudioMode()
+        if (newMode != mIngestedAudioMode
                 && mAudioManager.getParameters(VOLUME_BOOST).contains("=on")) {
             mAudioManager.setParameters(VOLUME_BOOST + "=off");
         }
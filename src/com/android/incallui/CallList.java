@@ -18,7 +18,6 @@ package com.android.incallui;
 
 import com.google.android.collect.Lists;
 import com.google.android.collect.Maps;
-import com.google.android.collect.Sets;
 import com.google.common.base.Preconditions;
 
 import android.os.Handler;
@@ -34,7 +33,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
 /**
  * Maintains the list of active calls received from CallHandlerService and notifies interested
@@ -50,18 +49,42 @@ public class CallList {
     private static final int EVENT_DISCONNECTED_TIMEOUT = 1;
     private static final int EVENT_NOTIFY_CHANGE = 2;
 
+    /** {@link Listener#onIncomingCall} */
+    public static final int LISTEN_INCOMING = 1 << 0;
+    /** {@link Listener#onCallListChange} */
+    public static final int LISTEN_CHANGE = 1 << 1;
+    /** {@link Listener#onDisconnect} */
+    public static final int LISTEN_DISCONNECT = 1 << 2;
+    public static final int LISTEN_ALL = LISTEN_INCOMING | LISTEN_CHANGE | LISTEN_DISCONNECT;
+
     private static CallList sInstance = new CallList();
 
     private final HashMap<Integer, Call> mCallMap = Maps.newHashMap();
+
+    // Secondary indexes over mCallMap, kept in sync by putCallInMap() and removeCallFromMap().
+    // Every list is ordered by call creation time so positional lookups are stable.
+    private final HashMap<Integer, ArrayList<Call>> mCallsByState = Maps.newHashMap();
+    private final HashMap<Integer, HashMap<Integer, ArrayList<Call>>> mCallsBySubscription =
+            Maps.newHashMap();
+    // Calls are mutated in place before being re-inserted (see clearOnDisconnect()), so the
+    // keys a call was indexed under cannot be read back from the call itself.
+    private final HashMap<Integer, IndexKey> mIndexKeys = Maps.newHashMap();
+
+    // Built lazily by getSnapshot() once the call map or active subscription has changed.
+    private CallListSnapshot mSnapshot = CallListSnapshot.EMPTY;
+    private boolean mSnapshotStale = false;
     private final HashMap<Integer, ArrayList<String>> mCallTextReponsesMap =
             Maps.newHashMap();
-    private final Set<Listener> mListeners = Sets.newArraySet();
-    private final HashMap<Integer, List<CallUpdateListener>> mCallUpdateListenerMap = Maps
-            .newHashMap();
+    // One list per event so each listener is only called for the events it asked for.
+    private final ListenerList<Listener> mIncomingListeners = new ListenerList<Listener>();
+    private final ListenerList<Listener> mChangeListeners = new ListenerList<Listener>();
+    private final ListenerList<Listener> mDisconnectListeners = new ListenerList<Listener>();
+    private final HashMap<Integer, ListenerList<CallUpdateListener>> mCallUpdateListenerMap =
+            Maps.newHashMap();
 
     private int mSubscription = 0;
-    private final ArrayList<ActiveSubChangeListener> mActiveSubChangeListeners =
-            Lists.newArrayList();
+    private final ListenerList<ActiveSubChangeListener> mActiveSubChangeListeners =
+            new ListenerList<ActiveSubChangeListener>();
 
     /**
      * Static singleton accessor method.
@@ -109,24 +132,22 @@ public class CallList {
      * Called when a single call has changed.
      */
     public void onIncoming(Call call, List<String> textMessages) {
-        Log.d(this, "onIncoming - " + call);
+        Log.d(this, "onIncoming - ", call);
 
         // ensure the ringing call is active subscription, since phone state
         // changed is notified before new incoming call ringing, and the event
         // will switch active sub to a wrong sub(which is not ringing)
-        if (MSimTelephonyManager.getDefault().isMultiSimEnabled())
-            CallCommandClient.getInstance().setActiveSubscription(call.getSubscription());
-        // will switch active sub to to a incorrect sub(which is not ringing)
         if (MSimTelephonyManager.getDefault().isMultiSimEnabled()) {
             CallCommandClient.getInstance().setActiveSubscription(call.getSubscription());
+            setActiveSubscription(call.getSubscription());
         }
-        updateActiveSuscription();
 
         updateCallInMap(call);
         updateCallTextMap(call, textMessages);
 
-        for (Listener listener : mListeners) {
-            listener.onIncomingCall(call);
+        final Object[] listeners = mIncomingListeners.array();
+        for (int i = 0; i < listeners.length; i++) {
+            ((Listener) listeners[i]).onIncomingCall(call);
         }
     }
 
@@ -137,10 +158,13 @@ public class CallList {
         Log.d(this, "onUpdate(...)");
 
         updateActiveSuscription();
+        applyUpdates(callsToUpdate);
+    }
 
+    private void applyUpdates(List<Call> callsToUpdate) {
         Preconditions.checkNotNull(callsToUpdate);
         for (Call call : callsToUpdate) {
-            Log.d(this, "\t" + call);
+            Log.d(this, "\t", call);
 
             updateCallInMap(call);
             updateCallTextMap(call, null);
@@ -152,10 +176,12 @@ public class CallList {
     }
 
     public void notifyCallUpdateListeners(Call call) {
-        final List<CallUpdateListener> listeners = mCallUpdateListenerMap.get(call.getCallId());
-        if (listeners != null) {
-            for (CallUpdateListener listener : listeners) {
-                listener.onCallStateChanged(call);
+        final ListenerList<CallUpdateListener> callListeners =
+                mCallUpdateListenerMap.get(call.getCallId());
+        if (callListeners != null) {
+            final Object[] listeners = callListeners.array();
+            for (int i = 0; i < listeners.length; i++) {
+                ((CallUpdateListener) listeners[i]).onCallStateChanged(call);
             }
         }
     }
@@ -167,9 +193,9 @@ public class CallList {
      * @param listener The listener to add.
      */
     public void addCallUpdateListener(int callId, CallUpdateListener listener) {
-        List<CallUpdateListener> listeners = mCallUpdateListenerMap.get(callId);
+        ListenerList<CallUpdateListener> listeners = mCallUpdateListenerMap.get(callId);
         if (listeners == null) {
-            listeners = Lists.newArrayList();
+            listeners = new ListenerList<CallUpdateListener>();
             mCallUpdateListenerMap.put(callId, listeners);
         }
         listeners.add(listener);
@@ -182,24 +208,44 @@ public class CallList {
      * @param listener The listener to remove.
      */
     public void removeCallUpdateListener(int callId, CallUpdateListener listener) {
-        List<CallUpdateListener> listeners = mCallUpdateListenerMap.get(callId);
+        final ListenerList<CallUpdateListener> listeners = mCallUpdateListenerMap.get(callId);
         if (listeners != null) {
             listeners.remove(listener);
+            if (listeners.isEmpty()) {
+                mCallUpdateListenerMap.remove(callId);
+            }
         }
     }
 
     public void addListener(Listener listener) {
-        Preconditions.checkNotNull(listener);
+        addListener(listener, LISTEN_ALL);
+    }
 
-        mListeners.add(listener);
+    /**
+     * Adds a listener that is only called for the given events.
+     *
+     * @param events Combination of the LISTEN_* flags.
+     */
+    public void addListener(Listener listener, int events) {
+        Preconditions.checkNotNull(listener);
 
-        // Let the listener know about the active calls immediately.
-        listener.onCallListChange(this);
+        if ((events & LISTEN_INCOMING) != 0) {
+            mIncomingListeners.add(listener);
+        }
+        if ((events & LISTEN_DISCONNECT) != 0) {
+            mDisconnectListeners.add(listener);
+        }
+        if ((events & LISTEN_CHANGE) != 0 && mChangeListeners.add(listener)) {
+            // Let the listener know about the active calls immediately.
+            listener.onCallListChange(this);
+        }
     }
 
     public void removeListener(Listener listener) {
         Preconditions.checkNotNull(listener);
-        mListeners.remove(listener);
+        mIncomingListeners.remove(listener);
+        mChangeListeners.remove(listener);
+        mDisconnectListeners.remove(listener);
     }
 
     /**
@@ -281,13 +327,21 @@ public class CallList {
         return mCallMap.get(callId);
     }
 
-    public boolean existsLiveCall() {
-        for (Call call : mCallMap.values()) {
-            if (!isCallDead(call)) {
-                return true;
-            }
+    /**
+     * Returns an immutable snapshot of the current calls, along with what changed since the
+     * previous snapshot. Listeners can compare versions to skip updates that do not affect them.
+     */
+    public CallListSnapshot getSnapshot() {
+        if (mSnapshotStale) {
+            mSnapshot = mSnapshot.next(mCallMap.values(), mSubscription);
+            mSnapshotStale = false;
         }
-        return false;
+        return mSnapshot;
+    }
+
+    public boolean existsLiveCall() {
+        // updateCallInMap() never keeps dead calls in the map.
+        return !mCallMap.isEmpty();
     }
 
     public ArrayList<String> getTextResponses(int callId) {
@@ -302,8 +356,7 @@ public class CallList {
     }
 
     /**
-     * Returns the [position]th call found in the call map with the specified state.
-     * TODO: Improve this logic to sort by call time.
+     * Returns the [position]th call with the specified state, ordered by call creation time.
      */
     public Call getCallWithState(int state, int positionToFind) {
         if (MSimTelephonyManager.getDefault().getMultiSimConfiguration()
@@ -311,20 +364,7 @@ public class CallList {
             return getCallWithState(state, positionToFind, getActiveSubscription());
         }
 
-        Call retval = null;
-        int position = 0;
-        for (Call call : mCallMap.values()) {
-            if (call.getState() == state) {
-                if (position >= positionToFind) {
-                    retval = call;
-                    break;
-                } else {
-                    position++;
-                }
-            }
-        }
-
-        return retval;
+        return getCallAtPosition(mCallsByState.get(state), positionToFind);
     }
 
     /**
@@ -350,17 +390,20 @@ public class CallList {
 
     /**
      * Sends a generic notification to all listeners that something has changed.
-     * It is up to the listeners to call back to determine what changed.
+     * Listeners can call back, or compare {@link #getSnapshot()} against the last snapshot
+     * they processed, to determine what changed.
      */
     private void notifyListenersOfChange() {
-        for (Listener listener : mListeners) {
-            listener.onCallListChange(this);
+        final Object[] listeners = mChangeListeners.array();
+        for (int i = 0; i < listeners.length; i++) {
+            ((Listener) listeners[i]).onCallListChange(this);
         }
     }
 
     private void notifyListenersOfDisconnect(Call call) {
-        for (Listener listener : mListeners) {
-            listener.onDisconnect(call);
+        final Object[] listeners = mDisconnectListeners.array();
+        for (int i = 0; i < listeners.length; i++) {
+            ((Listener) listeners[i]).onDisconnect(call);
         }
     }
 
@@ -379,12 +422,12 @@ public class CallList {
             // update existing (but do not add!!) disconnected calls
             if (mCallMap.containsKey(id)) {
                 final Call.DisconnectCause disconnCause = call.getDisconnectCause();
-                Log.d(this, "disconnect cause: " + disconnCause);
+                Log.d(this, "disconnect cause: ", disconnCause);
                 if (disconnCause == Call.DisconnectCause.SRVCC_CALL_DROP) {
                     Log.d(this, "SRVCC call so silently removing call entry");
                     //silently remove the call entry
                     call.setState(Call.State.IDLE);
-                    mCallMap.remove(id);
+                    removeCallFromMap(id);
                     updated = false;
                 } else {
 
@@ -396,21 +439,129 @@ public class CallList {
                     final Message msg = mHandler.obtainMessage(EVENT_DISCONNECTED_TIMEOUT, call);
                     mHandler.sendMessageDelayed(msg, getDelayForDisconnect(call));
 
-                    mCallMap.put(id, call);
+                    putCallInMap(id, call);
                     updated = true;
                }
             }
         } else if (!isCallDead(call)) {
-            mCallMap.put(id, call);
+            putCallInMap(id, call);
             updated = true;
         } else if (mCallMap.containsKey(id)) {
-            mCallMap.remove(id);
+            removeCallFromMap(id);
             updated = true;
         }
 
         return updated;
     }
 
+    private void putCallInMap(Integer id, Call call) {
+        removeFromIndexes(id);
+        mCallMap.put(id, call);
+        mSnapshotStale = true;
+
+        final int state = call.getState();
+        final int subscription = call.getSubscription();
+        mIndexKeys.put(id, new IndexKey(state, subscription));
+
+        ArrayList<Call> byState = mCallsByState.get(state);
+        if (byState == null) {
+            byState = Lists.newArrayList();
+            mCallsByState.put(state, byState);
+        }
+        insertByCreateTime(byState, call);
+
+        HashMap<Integer, ArrayList<Call>> subIndex = mCallsBySubscription.get(subscription);
+        if (subIndex == null) {
+            subIndex = Maps.newHashMap();
+            mCallsBySubscription.put(subscription, subIndex);
+        }
+        ArrayList<Call> bySubAndState = subIndex.get(state);
+        if (bySubAndState == null) {
+            bySubAndState = Lists.newArrayList();
+            subIndex.put(state, bySubAndState);
+        }
+        insertByCreateTime(bySubAndState, call);
+    }
+
+    private void removeCallFromMap(Integer id) {
+        removeFromIndexes(id);
+        mCallMap.remove(id);
+        mSnapshotStale = true;
+    }
+
+    private void removeFromIndexes(Integer id) {
+        final IndexKey key = mIndexKeys.remove(id);
+        if (key == null) {
+            return;
+        }
+        removeCallWithId(mCallsByState.get(key.state), id);
+
+        final HashMap<Integer, ArrayList<Call>> subIndex =
+                mCallsBySubscription.get(key.subscription);
+        if (subIndex != null) {
+            removeCallWithId(subIndex.get(key.state), id);
+        }
+    }
+
+    /**
+     * Inserts the call after every call created at or before it.  Lists are tiny, so scanning
+     * from the tail is cheaper than a binary search in the common (newest call) case.
+     */
+    private static void insertByCreateTime(ArrayList<Call> calls, Call call) {
+        final long createTime = call.getCreateTime();
+        int index = calls.size();
+        while (index > 0 && calls.get(index - 1).getCreateTime() > createTime) {
+            index--;
+        }
+        calls.add(index, call);
+    }
+
+    private static void removeCallWithId(ArrayList<Call> calls, int callId) {
+        if (calls == null) {
+            return;
+        }
+        for (int i = calls.size() - 1; i >= 0; i--) {
+            if (calls.get(i).getCallId() == callId) {
+                calls.remove(i);
+                return;
+            }
+        }
+    }
+
+    private static Call getCallAtPosition(ArrayList<Call> calls, int position) {
+        if (calls == null || position < 0 || position >= calls.size()) {
+            return null;
+        }
+        return calls.get(position);
+    }
+
+    private boolean hasIndexedCall(int subscription, boolean includeDisconnected) {
+        final HashMap<Integer, ArrayList<Call>> subIndex = mCallsBySubscription.get(subscription);
+        if (subIndex == null) {
+            return false;
+        }
+        for (Map.Entry<Integer, ArrayList<Call>> entry : subIndex.entrySet()) {
+            if (!entry.getValue().isEmpty() && (includeDisconnected
+                    || entry.getKey() != Call.State.DISCONNECTED)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * State and subscription a call was filed under in the secondary indexes.
+     */
+    private static final class IndexKey {
+        final int state;
+        final int subscription;
+
+        IndexKey(int state, int subscription) {
+            this.state = state;
+            this.subscription = subscription;
+        }
+    }
+
     private int getDelayForDisconnect(Call call) {
         Preconditions.checkState(call.getState() == Call.State.DISCONNECTED);
 
@@ -480,8 +631,10 @@ public class CallList {
                 case EVENT_NOTIFY_CHANGE:
                     Log.d(this, "EVENT_NOTIFY_CHANGE: ");
                     notifyListenersOfChange();
-                    for (ActiveSubChangeListener listener : mActiveSubChangeListeners) {
-                        listener.onActiveSubChanged(getActiveSubscription());
+                    final int subscription = getActiveSubscription();
+                    final Object[] listeners = mActiveSubChangeListeners.array();
+                    for (int i = 0; i < listeners.length; i++) {
+                        ((ActiveSubChangeListener) listeners[i]).onActiveSubChanged(subscription);
                     }
                     break;
                 default:
@@ -547,31 +700,21 @@ public class CallList {
         if (subscription != mSubscription) {
             Log.i(this, "setActiveSubscription, old = " + mSubscription + " new = " + subscription);
             mSubscription = subscription;
+            mSnapshotStale = true;
             final Message msg = mHandler.obtainMessage(EVENT_NOTIFY_CHANGE, null);
             mHandler.sendMessage(msg);
         }
     }
 
     public boolean existsConnectedCall(int subscription) {
-        for (Call call : mCallMap.values()) {
-            if (!isCallDead(call) && call.getState() != Call.State.DISCONNECTED
-                    && call.getSubscription() == subscription) {
-                return true;
-            }
-        }
-        return false;
+        return hasIndexedCall(subscription, false);
     }
 
     /**
      * Returns true, if any voice call in ACTIVE on the provided subscription.
      */
     public boolean existsLiveCall(int subscription) {
-        for (Call call : mCallMap.values()) {
-            if (!isCallDead(call) && (call.getSubscription() == subscription)) {
-                return true;
-            }
-        }
-        return false;
+        return hasIndexedCall(subscription, true);
     }
 
     /**
@@ -620,40 +763,36 @@ public class CallList {
     }
 
     /**
-     * Its a utility, gets the current active subscription from TeleService and
-     * updates the mSubscription member variable.
+     * Its a utility, asks TeleService for the current active subscription and
+     * updates the mSubscription member variable once the answer arrives. Does not
+     * block; subscriptions set before this call are seen by the answer.
      */
     public void updateActiveSuscription() {
         if (!MSimTelephonyManager.getDefault().isMultiSimEnabled()) {
             return;
         }
-        setActiveSubscription(CallCommandClient.getInstance().getActiveSubscription());
+        CallCommandClient.getInstance().requestActiveSubscription();
     }
 
     /**
      * Returns the [position]th call which belongs to provided subscription and
-     * found in the call map with the specified state.
+     * has the specified state, ordered by call creation time.
      */
     public Call getCallWithState(int state, int positionToFind, int subscription) {
-        Call retval = null;
-        int position = 0;
-        for (Call call : mCallMap.values()) {
-            if ((call.getState() == state) && (call.getSubscription() == subscription)) {
-                if (position >= positionToFind) {
-                    retval = call;
-                    break;
-                } else {
-                    position++;
-                }
-            }
+        final HashMap<Integer, ArrayList<Call>> subIndex = mCallsBySubscription.get(subscription);
+        if (subIndex == null) {
+            return null;
         }
-        return retval;
+        return getCallAtPosition(subIndex.get(state), positionToFind);
     }
 
     public Call getCallWithStateAndNumber(int state, String number) {
-        for (Call call : mCallMap.values()) {
-            if (TextUtils.equals(call.getNumber(), number) && call.getState() == state) {
-                return call;
+        final ArrayList<Call> calls = mCallsByState.get(state);
+        if (calls != null) {
+            for (Call call : calls) {
+                if (TextUtils.equals(call.getNumber(), number)) {
+                    return call;
+                }
             }
         }
         return null;
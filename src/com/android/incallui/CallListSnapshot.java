@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.text.TextUtils;
+
+import com.android.services.telephony.common.Call;
+import com.android.services.telephony.common.CallDetails;
+import com.android.services.telephony.common.CallIdentification;
+import com.google.android.collect.Maps;
+import com.google.android.collect.Sets;
+import com.google.common.base.Objects;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable, versioned view of the call list together with the changes since the previous
+ * snapshot: which calls were added, which were removed and which fields changed on the calls
+ * that stayed. Listeners can use {@link #isUnchangedSince} to skip work when nothing they
+ * display has changed.
+ * <p>
+ * The {@link Call} objects handed out are the ones held by {@link CallList} and must be treated
+ * as read-only. The change set is computed from field values recorded when the snapshot was
+ * taken, so it stays correct even though CallList updates some calls in place.
+ */
+public final class CallListSnapshot {
+
+    /** Version that no snapshot ever has; use it for "never seen a snapshot". */
+    public static final long INVALID_VERSION = -1;
+
+    public static final int CHANGED_STATE = 1 << 0;
+    public static final int CHANGED_DISCONNECT_CAUSE = 1 << 1;
+    public static final int CHANGED_IDENTIFICATION = 1 << 2;
+    public static final int CHANGED_CAPABILITIES = 1 << 3;
+    public static final int CHANGED_CONFERENCE = 1 << 4;
+    public static final int CHANGED_CALL_DETAILS = 1 << 5;
+    public static final int CHANGED_SUBSCRIPTION = 1 << 6;
+    public static final int CHANGED_CONNECT_TIME = 1 << 7;
+    public static final int CHANGED_ALL = (1 << 8) - 1;
+
+    /* package */ static final CallListSnapshot EMPTY = new CallListSnapshot(0,
+            Collections.<Integer, Call>emptyMap(), Collections.<Integer, CallRecord>emptyMap(),
+            Collections.<Integer>emptySet(), Collections.<Integer>emptySet(),
+            Collections.<Integer, Integer>emptyMap(), 0, false);
+
+    private final long mVersion;
+    private final Map<Integer, Call> mCalls;
+    private final Map<Integer, CallRecord> mRecords;
+    private final Set<Integer> mAddedCallIds;
+    private final Set<Integer> mRemovedCallIds;
+    private final Map<Integer, Integer> mChangedFields;
+    private final int mActiveSubscription;
+    private final boolean mActiveSubscriptionChanged;
+
+    private CallListSnapshot(long version, Map<Integer, Call> calls,
+            Map<Integer, CallRecord> records, Set<Integer> added, Set<Integer> removed,
+            Map<Integer, Integer> changedFields, int activeSubscription,
+            boolean activeSubscriptionChanged) {
+        mVersion = version;
+        mCalls = calls;
+        mRecords = records;
+        mAddedCallIds = added;
+        mRemovedCallIds = removed;
+        mChangedFields = changedFields;
+        mActiveSubscription = activeSubscription;
+        mActiveSubscriptionChanged = activeSubscriptionChanged;
+    }
+
+    /**
+     * Builds the snapshot that follows this one, diffing the given calls against it.
+     */
+    /* package */ CallListSnapshot next(Collection<Call> calls, int activeSubscription) {
+        final HashMap<Integer, Call> callMap = Maps.newHashMap();
+        final HashMap<Integer, CallRecord> records = Maps.newHashMap();
+        final Set<Integer> added = Sets.newArraySet();
+        final Set<Integer> removed = Sets.newArraySet();
+        final HashMap<Integer, Integer> changed = Maps.newHashMap();
+
+        for (Call call : calls) {
+            final Integer id = call.getCallId();
+            final CallRecord record = new CallRecord(call);
+            callMap.put(id, call);
+            records.put(id, record);
+
+            final CallRecord previous = mRecords.get(id);
+            if (previous == null) {
+                added.add(id);
+            } else {
+                final int fields = previous.diff(record);
+                if (fields != 0) {
+                    changed.put(id, fields);
+                }
+            }
+        }
+        for (Integer id : mRecords.keySet()) {
+            if (!records.containsKey(id)) {
+                removed.add(id);
+            }
+        }
+
+        return new CallListSnapshot(mVersion + 1, Collections.unmodifiableMap(callMap),
+                records, Collections.unmodifiableSet(added),
+                Collections.unmodifiableSet(removed), Collections.unmodifiableMap(changed),
+                activeSubscription, activeSubscription != mActiveSubscription);
+    }
+
+    public long getVersion() {
+        return mVersion;
+    }
+
+    public Map<Integer, Call> getCalls() {
+        return mCalls;
+    }
+
+    public Call getCall(int callId) {
+        return mCalls.get(callId);
+    }
+
+    public int getActiveSubscription() {
+        return mActiveSubscription;
+    }
+
+    public Set<Integer> getAddedCallIds() {
+        return mAddedCallIds;
+    }
+
+    public Set<Integer> getRemovedCallIds() {
+        return mRemovedCallIds;
+    }
+
+    /**
+     * Returns the CHANGED_* flags for the call since the previous snapshot, or 0 if the call is
+     * new, removed or unchanged.
+     */
+    public int getChangedFields(int callId) {
+        final Integer fields = mChangedFields.get(callId);
+        return fields == null ? 0 : fields;
+    }
+
+    /**
+     * Returns true if this snapshot differs from the previous one in any of the given fields,
+     * or if calls were added or removed or the active subscription changed.
+     */
+    public boolean hasChanges(int fieldMask) {
+        if (!mAddedCallIds.isEmpty() || !mRemovedCallIds.isEmpty()
+                || mActiveSubscriptionChanged) {
+            return true;
+        }
+        for (Integer fields : mChangedFields.values()) {
+            if ((fields & fieldMask) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if a listener that last processed snapshot {@code lastSeenVersion} can skip
+     * this one because none of the given fields could have changed in between. Only the change
+     * to the immediately preceding snapshot is known, so a listener that missed a version
+     * always gets false.
+     */
+    public boolean isUnchangedSince(long lastSeenVersion, int fieldMask) {
+        if (lastSeenVersion == INVALID_VERSION) {
+            return false;
+        }
+        if (lastSeenVersion == mVersion) {
+            return true;
+        }
+        return lastSeenVersion == mVersion - 1 && !hasChanges(fieldMask);
+    }
+
+    @Override
+    public String toString() {
+        return "CallListSnapshot{v" + mVersion + " calls=" + mCalls.keySet()
+                + " added=" + mAddedCallIds + " removed=" + mRemovedCallIds
+                + " changed=" + mChangedFields + "}";
+    }
+
+    /**
+     * Values of the fields listeners display, copied out of a call when the snapshot is taken.
+     */
+    private static final class CallRecord {
+        private final int mState;
+        private final boolean mHeldRemotely;
+        private final boolean mDialingWaiting;
+        private final Call.DisconnectCause mDisconnectCause;
+        private final String mNumber;
+        private final int mNumberPresentation;
+        private final String mCnapName;
+        private final int mCnapNamePresentation;
+        private final boolean mForwarded;
+        private final String mGatewayNumber;
+        private final String mGatewayPackage;
+        private final int mCapabilities;
+        private final Collection<Integer> mChildCallIds;
+        private final boolean mMpty;
+        private final String[] mConfParticipants;
+        private final int mCallType;
+        private final int mCallDomain;
+        private final int mSubscription;
+        private final long mConnectTime;
+
+        CallRecord(Call call) {
+            mState = call.getState();
+            mHeldRemotely = call.isHeldRemotely();
+            mDialingWaiting = call.isDialingWaiting();
+            mDisconnectCause = call.getDisconnectCause();
+
+            final CallIdentification identification = call.getIdentification();
+            mNumber = identification.getNumber();
+            mNumberPresentation = identification.getNumberPresentation();
+            mCnapName = identification.getCnapName();
+            mCnapNamePresentation = identification.getCnapNamePresentation();
+            mForwarded = call.isForwarded();
+            mGatewayNumber = call.getGatewayNumber();
+            mGatewayPackage = call.getGatewayPackage();
+
+            mCapabilities = call.getCapabilities();
+            mChildCallIds = call.getChildCallIds();
+
+            final CallDetails details = call.getCallDetails();
+            if (details != null) {
+                mMpty = details.isMpty();
+                mConfParticipants = details.getConfParticipantList();
+                mCallType = details.getCallType();
+                mCallDomain = details.getCallDomain();
+            } else {
+                mMpty = false;
+                mConfParticipants = null;
+                mCallType = CallDetails.CALL_TYPE_UNKNOWN;
+                mCallDomain = CallDetails.CALL_DOMAIN_UNKNOWN;
+            }
+
+            mSubscription = call.getSubscription();
+            mConnectTime = call.getConnectTime();
+        }
+
+        /**
+         * Returns the CHANGED_* flags for every field that differs from {@code other}.
+         */
+        int diff(CallRecord other) {
+            int fields = 0;
+            if (mState != other.mState || mHeldRemotely != other.mHeldRemotely
+                    || mDialingWaiting != other.mDialingWaiting) {
+                fields |= CHANGED_STATE;
+            }
+            if (mDisconnectCause != other.mDisconnectCause) {
+                fields |= CHANGED_DISCONNECT_CAUSE;
+            }
+            if (!TextUtils.equals(mNumber, other.mNumber)
+                    || mNumberPresentation != other.mNumberPresentation
+                    || !TextUtils.equals(mCnapName, other.mCnapName)
+                    || mCnapNamePresentation != other.mCnapNamePresentation
+                    || mForwarded != other.mForwarded
+                    || !TextUtils.equals(mGatewayNumber, other.mGatewayNumber)
+                    || !TextUtils.equals(mGatewayPackage, other.mGatewayPackage)) {
+                fields |= CHANGED_IDENTIFICATION;
+            }
+            if (mCapabilities != other.mCapabilities) {
+                fields |= CHANGED_CAPABILITIES;
+            }
+            if (mMpty != other.mMpty || !Objects.equal(mChildCallIds, other.mChildCallIds)
+                    || !Arrays.equals(mConfParticipants, other.mConfParticipants)) {
+                fields |= CHANGED_CONFERENCE;
+            }
+            if (mCallType != other.mCallType || mCallDomain != other.mCallDomain) {
+                fields |= CHANGED_CALL_DETAILS;
+            }
+            if (mSubscription != other.mSubscription) {
+                fields |= CHANGED_SUBSCRIPTION;
+            }
+            if (mConnectTime != other.mConnectTime) {
+                fields |= CHANGED_CONNECT_TIME;
+            }
+            return fields;
+        }
+    }
+}
@@ -20,17 +20,16 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
-import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.text.TextUtils;
 import android.util.Log;
 import android.widget.Toast;
 
 import com.android.services.callrecorder.CallRecorderService;
-import com.android.services.callrecorder.CallRecordingDataStore;
 import com.android.services.callrecorder.common.CallRecording;
 import com.android.services.callrecorder.common.ICallRecorderService;
 import com.android.services.telephony.common.Call;
@@ -52,20 +51,31 @@ public class CallRecorder implements CallList.Listener {
     private Context mContext;
     private boolean mInitialized = false;
     private ICallRecorderService mService = null;
+    private CallRecordingWriter mWriter;
+
+    // Local mirror of the service's recording state, so that call state changes and progress
+    // updates do not need a binder call. Read from the service when it connects and after each
+    // start attempt, and cleared on stop. mRecordingNumber is null when nothing is recording.
+    private String mRecordingNumber;
+    private long mRecordingStartTime;
 
     private HashSet<RecordingProgressListener> mProgressListeners =
             new HashSet<RecordingProgressListener>();
-    private Handler mHandler = new Handler();
 
     private ServiceConnection mConnection = new ServiceConnection() {
         @Override
         public void onServiceConnected(ComponentName name, IBinder service) {
             mService = ICallRecorderService.Stub.asInterface(service);
+            syncRecordingState();
         }
 
         @Override
         public void onServiceDisconnected(ComponentName name) {
             mService = null;
+            if (mRecordingNumber != null) {
+                // The recording died with the service.
+                onRecordingStopped();
+            }
         }
     };
 
@@ -81,11 +91,15 @@ public class CallRecorder implements CallList.Listener {
     }
 
     private CallRecorder() {
-        CallList.getInstance().addListener(this);
+        CallList.getInstance().addListener(this,
+                CallList.LISTEN_CHANGE | CallList.LISTEN_DISCONNECT);
     }
 
     public void setUp(Context context) {
         mContext = context.getApplicationContext();
+        if (mWriter == null) {
+            mWriter = new CallRecordingWriter(mContext);
+        }
     }
 
     private void initialize() {
@@ -110,11 +124,9 @@ public class CallRecorder implements CallList.Listener {
 
         try {
             if (mService.startRecording(phoneNumber, creationTime)) {
-                for (RecordingProgressListener l : mProgressListeners) {
-                    l.onStartRecording();
-                }
-                mUpdateRecordingProgressTask.run();
-                return true;
+                // Take the start time from the service, so that progress is measured from when
+                // the recording actually started.
+                return syncRecordingState();
             } else {
                 Toast.makeText(mContext, R.string.call_recording_failed_message,
                         Toast.LENGTH_SHORT).show();
@@ -124,22 +136,22 @@ public class CallRecorder implements CallList.Listener {
                     new Date(creationTime), e);
         }
 
+        // The service may still be recording something the mirror doesn't know about.
+        syncRecordingState();
         return false;
     }
 
+    /**
+     * Returns whether a recording is running. Answered from the local mirror without IPC.
+     */
     public boolean isRecording() {
-        if (mService == null) {
-            return false;
-        }
-
-        try {
-            return mService.isRecording();
-        } catch (RemoteException e) {
-            Log.w(TAG, "Exception checking recording status", e);
-        }
-        return false;
+        return mRecordingNumber != null;
     }
 
+    /**
+     * Queries the service for the active recording. This is a synchronous binder call; use
+     * {@link #isRecording} where only the state is needed.
+     */
     public CallRecording getActiveRecording() {
         if (mService == null) {
             return null;
@@ -154,27 +166,61 @@ public class CallRecorder implements CallList.Listener {
     }
 
     public void finishRecording() {
+        if (mService == null) {
+            Log.w(TAG, "Cannot stop recording; service not connected");
+            return;
+        }
+
         try {
             final CallRecording recording = mService.stopRecording();
             if (recording != null) {
-                new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        CallRecordingDataStore dataStore = new CallRecordingDataStore();
-                        dataStore.open(mContext);
-                        dataStore.putRecording(recording);
-                        dataStore.close();
-                    }
-                }).start();
+                mWriter.putRecording(recording);
             }
         } catch (RemoteException e) {
             Log.w(TAG, "Failed to stop recording", e);
         }
 
+        onRecordingStopped();
+    }
+
+    /**
+     * Reads the recording state from the service once, e.g. when a recording was started
+     * before this process last connected to it, or after starting one.
+     *
+     * @return whether the service is recording
+     */
+    private boolean syncRecordingState() {
+        final CallRecording active = getActiveRecording();
+        if (active != null) {
+            if (!TextUtils.equals(active.phoneNumber, mRecordingNumber)
+                    || active.startRecordingTime != mRecordingStartTime) {
+                onRecordingStarted(active.phoneNumber, active.startRecordingTime);
+            }
+        } else if (mRecordingNumber != null) {
+            onRecordingStopped();
+        }
+        return active != null;
+    }
+
+    private void onRecordingStarted(String phoneNumber, long startTime) {
+        mRecordingNumber = phoneNumber;
+        mRecordingStartTime = startTime;
+
+        for (RecordingProgressListener l : mProgressListeners) {
+            l.onStartRecording();
+        }
+        TickScheduler.getInstance().subscribe(mUpdateRecordingProgressTask,
+                UPDATE_INTERVAL, 0);
+        mUpdateRecordingProgressTask.onTick(SystemClock.uptimeMillis());
+    }
+
+    private void onRecordingStopped() {
+        mRecordingNumber = null;
+
         for (RecordingProgressListener l : mProgressListeners) {
             l.onStopRecording();
         }
-        mHandler.removeCallbacks(mUpdateRecordingProgressTask);
+        TickScheduler.getInstance().unsubscribe(mUpdateRecordingProgressTask);
     }
 
     //
@@ -192,10 +238,9 @@ public class CallRecorder implements CallList.Listener {
             initialize();
         } else {
             // we can come down this branch to resume a call that was on hold
-            CallRecording active = getActiveRecording();
-            if (active != null) {
+            if (mRecordingNumber != null) {
                 Call call = callList.getCallWithStateAndNumber(Call.State.ONHOLD,
-                        active.phoneNumber);
+                        mRecordingNumber);
                 if (call != null) {
                     // The call associated with the active recording has been placed
                     // on hold, so stop the recording.
@@ -207,8 +252,7 @@ public class CallRecorder implements CallList.Listener {
 
     @Override
     public void onDisconnect(final Call call) {
-        CallRecording active = getActiveRecording();
-        if (active != null && TextUtils.equals(call.getNumber(), active.phoneNumber)) {
+        if (mRecordingNumber != null && TextUtils.equals(call.getNumber(), mRecordingNumber)) {
             // finish the current recording if the call gets disconnected
             finishRecording();
         }
@@ -236,17 +280,16 @@ public class CallRecorder implements CallList.Listener {
 
     private static final int UPDATE_INTERVAL = 500;
 
-    private Runnable mUpdateRecordingProgressTask = new Runnable() {
+    private TickScheduler.TickListener mUpdateRecordingProgressTask =
+            new TickScheduler.TickListener() {
         @Override
-        public void run() {
-            CallRecording active = getActiveRecording();
-            if (active != null) {
-                long elapsed = System.currentTimeMillis() - active.startRecordingTime;
+        public void onTick(long uptimeMillis) {
+            if (mRecordingNumber != null) {
+                long elapsed = System.currentTimeMillis() - mRecordingStartTime;
                 for (RecordingProgressListener l : mProgressListeners) {
                     l.onRecordingTimeProgress(elapsed);
                 }
             }
-            mHandler.postDelayed(mUpdateRecordingProgressTask, UPDATE_INTERVAL);
         }
     };
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.incallui;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+
+import com.android.services.callrecorder.CallRecordingDataStore;
+import com.android.services.callrecorder.common.CallRecording;
+import com.google.android.collect.Lists;
+
+import java.util.ArrayList;
+
+/**
+ * Write-behind persistence of call recording metadata. Recordings are queued from the main
+ * thread and written on a single background thread, which keeps the data store open while
+ * recordings keep arriving and closes it once it has been idle for a while.
+ */
+/* package */ class CallRecordingWriter {
+
+    private static final int MSG_WRITE = 1;
+    private static final int MSG_CLOSE = 2;
+
+    // How long the data store stays open after the last write.
+    private static final long CLOSE_DELAY_MS = 30 * 1000;
+
+    private final Context mContext;
+    private final Handler mHandler;
+
+    // Recordings waiting to be written. Guarded by itself.
+    private final ArrayList<CallRecording> mPending = Lists.newArrayList();
+
+    // Only touched on the writer thread.
+    private CallRecordingDataStore mDataStore;
+
+    CallRecordingWriter(Context context) {
+        mContext = context.getApplicationContext();
+        final HandlerThread thread = new HandlerThread("CallRecordingWriter",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new WriterHandler(thread.getLooper());
+    }
+
+    /**
+     * Queues the recording to be written to the data store.
+     */
+    void putRecording(CallRecording recording) {
+        synchronized (mPending) {
+            mPending.add(recording);
+        }
+        mHandler.sendEmptyMessage(MSG_WRITE);
+    }
+
+    private class WriterHandler extends Handler {
+        WriterHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            switch (msg.what) {
+                case MSG_WRITE:
+                    writePending();
+                    break;
+                case MSG_CLOSE:
+                    if (mDataStore != null) {
+                        mDataStore.close();
+                        mDataStore = null;
+                    }
+                    break;
+            }
+        }
+    }
+
+    private void writePending() {
+        final ArrayList<CallRecording> batch;
+        synchronized (mPending) {
+            if (mPending.isEmpty()) {
+                // Already written along with an earlier message.
+                return;
+            }
+            batch = Lists.newArrayList();
+            batch.addAll(mPending);
+            mPending.clear();
+        }
+
+        if (mDataStore == null) {
+            mDataStore = new CallRecordingDataStore();
+            mDataStore.open(mContext);
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            mDataStore.putRecording(batch.get(i));
+        }
+        Log.d(this, "Wrote recordings: ", batch.size());
+
+        mHandler.removeMessages(MSG_CLOSE);
+        mHandler.sendEmptyMessageDelayed(MSG_CLOSE, CLOSE_DELAY_MS);
+    }
+}
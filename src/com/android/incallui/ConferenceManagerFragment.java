@@ -18,13 +18,21 @@ package com.android.incallui;
 
 import android.app.Activity;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.text.TextUtils;
+import android.text.format.DateUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.Chronometer;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
 import android.widget.TextView;
 
+import com.android.incallui.ConferenceManagerPresenter.Participant;
+import com.google.android.collect.Lists;
+
+import java.util.List;
+
 /**
  * Fragment for call control buttons
  */
@@ -34,8 +42,18 @@ public class ConferenceManagerFragment
         implements ConferenceManagerPresenter.ConferenceManagerUi {
 
     private View mButtonManageConferenceDone;
-    private ViewGroup[] mConferenceCallList;
-    private Chronometer mConferenceTime;
+    private ListView mConferenceCallList;
+    private final ParticipantAdapter mParticipantAdapter = new ParticipantAdapter();
+    private TextView mConferenceTime;
+    private long mConferenceTimeBase;
+
+    private final TickScheduler.TickListener mConferenceTimeListener =
+            new TickScheduler.TickListener() {
+        @Override
+        public void onTick(long uptimeMillis) {
+            updateConferenceTime();
+        }
+    };
 
     @Override
     ConferenceManagerPresenter createPresenter() {
@@ -53,6 +71,12 @@ public class ConferenceManagerFragment
         super.onCreate(savedInstanceState);
     }
 
+    @Override
+    public void onDestroyView() {
+        stopConferenceTime();
+        super.onDestroyView();
+    }
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
             Bundle savedInstanceState) {
@@ -60,18 +84,12 @@ public class ConferenceManagerFragment
                 false);
 
         // set up the Conference Call chronometer
-        mConferenceTime = (Chronometer) parent.findViewById(R.id.manageConferencePanelHeader);
-        mConferenceTime.setFormat(getActivity().getString(R.string.caller_manage_header));
-
-        // Create list of conference call widgets
-        mConferenceCallList = new ViewGroup[getPresenter().getMaxCallersInConference()];
+        mConferenceTime = (TextView) parent.findViewById(R.id.manageConferencePanelHeader);
+        mConferenceTimeBase = SystemClock.elapsedRealtime();
+        updateConferenceTime();
 
-        final int[] viewGroupIdList = { R.id.caller0, R.id.caller1, R.id.caller2,
-                                        R.id.caller3, R.id.caller4 };
-        for (int i = 0; i < getPresenter().getMaxCallersInConference(); i++) {
-            mConferenceCallList[i] =
-                    (ViewGroup) parent.findViewById(viewGroupIdList[i]);
-        }
+        mConferenceCallList = (ListView) parent.findViewById(R.id.conferenceList);
+        mConferenceCallList.setAdapter(mParticipantAdapter);
 
         mButtonManageConferenceDone = parent.findViewById(R.id.manage_done);
         mButtonManageConferenceDone.setOnClickListener(new View.OnClickListener() {
@@ -112,93 +130,38 @@ public class ConferenceManagerFragment
     }
 
     @Override
-    public void setRowVisible(int rowId, boolean on) {
-        if (on) {
-            mConferenceCallList[rowId].setVisibility(View.VISIBLE);
-        } else {
-            mConferenceCallList[rowId].setVisibility(View.GONE);
-        }
+    public void setParticipants(List<Participant> participants) {
+        mParticipantAdapter.setParticipants(participants);
     }
 
     /**
-     * Helper function to fill out the Conference Call(er) information
-     * for each item in the "Manage Conference Call" list.
+     * Rebinds the row of the participant at the given position if it is on screen. Rows that
+     * are off screen are bound when they are scrolled into view.
      */
     @Override
-    public final void displayCallerInfoForConferenceRow(int rowId, String callerName,
-            String callerNumber, String callerNumberType) {
-
-        final TextView nameTextView = (TextView) mConferenceCallList[rowId].findViewById(
-                R.id.conferenceCallerName);
-        final TextView numberTextView = (TextView) mConferenceCallList[rowId].findViewById(
-                R.id.conferenceCallerNumber);
-        final TextView numberTypeTextView = (TextView) mConferenceCallList[rowId].findViewById(
-                R.id.conferenceCallerNumberType);
-
-        // set the caller name
-        nameTextView.setText(callerName);
-
-        // set the caller number in subscript, or make the field disappear.
-        if (TextUtils.isEmpty(callerNumber)) {
-            numberTextView.setVisibility(View.GONE);
-            numberTypeTextView.setVisibility(View.GONE);
-        } else {
-            numberTextView.setVisibility(View.VISIBLE);
-            numberTextView.setText(callerNumber);
-            numberTypeTextView.setVisibility(View.VISIBLE);
-            numberTypeTextView.setText(callerNumberType);
+    public void updateParticipant(int position) {
+        if (mConferenceCallList == null) {
+            return;
         }
-    }
-
-    @Override
-    public final void setupEndButtonForRow(final int rowId) {
-        View endButton = mConferenceCallList[rowId].findViewById(R.id.conferenceCallerDisconnect);
-        endButton.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(View v) {
-                    getPresenter().endConferenceConnection(rowId);
-                }
-        });
-    }
-
-   @Override
-    public void setupEndButtonForRowWithUrl(final int rowId, final String url) {
-        View endButton = mConferenceCallList[rowId].findViewById(R.id.conferenceCallerDisconnect);
-        endButton.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                getPresenter().endConferenceConnectionUrl(rowId, url);
-            }
-        });
-    }
-
-    @Override
-    public final void setCanSeparateButtonForRow(final int rowId, boolean canSeparate) {
-        final View separateButton = mConferenceCallList[rowId].findViewById(
-                R.id.conferenceCallerSeparate);
-
-        if (canSeparate) {
-            final View.OnClickListener separateThisConnection = new View.OnClickListener() {
-                    @Override
-                    public void onClick(View v) {
-                        getPresenter().separateConferenceConnection(rowId);
-                    }
-                };
-            separateButton.setOnClickListener(separateThisConnection);
-            separateButton.setVisibility(View.VISIBLE);
-        } else {
-            separateButton.setVisibility(View.INVISIBLE);
+        final View row = mConferenceCallList.getChildAt(
+                position - mConferenceCallList.getFirstVisiblePosition());
+        if (row != null) {
+            ((ParticipantViewHolder) row.getTag()).bind(mParticipantAdapter.getItem(position));
         }
     }
 
     /**
      * Starts the "conference time" chronometer.
+     *
+     * @param base start of the conference, in {@link SystemClock#elapsedRealtime()}
      */
     @Override
     public void startConferenceTime(long base) {
         if (mConferenceTime != null) {
-            mConferenceTime.setBase(base);
-            mConferenceTime.start();
+            mConferenceTimeBase = base;
+            updateConferenceTime();
+            TickScheduler.getInstance().subscribe(mConferenceTimeListener,
+                    DateUtils.SECOND_IN_MILLIS, 0);
         }
     }
 
@@ -207,8 +170,110 @@ public class ConferenceManagerFragment
      */
     @Override
     public void stopConferenceTime() {
-        if (mConferenceTime != null) {
-            mConferenceTime.stop();
+        TickScheduler.getInstance().unsubscribe(mConferenceTimeListener);
+    }
+
+    private void updateConferenceTime() {
+        final long seconds = (SystemClock.elapsedRealtime() - mConferenceTimeBase) / 1000;
+        mConferenceTime.setText(getString(R.string.caller_manage_header,
+                DateUtils.formatElapsedTime(seconds)));
+    }
+
+    /**
+     * Views of one row in the participant list, looked up once when the row is inflated.
+     */
+    private class ParticipantViewHolder implements View.OnClickListener {
+        private final TextView mName;
+        private final TextView mNumber;
+        private final TextView mNumberType;
+        private final View mSeparateButton;
+        private final View mEndButton;
+        private Participant mParticipant;
+
+        ParticipantViewHolder(View row) {
+            mName = (TextView) row.findViewById(R.id.conferenceCallerName);
+            mNumber = (TextView) row.findViewById(R.id.conferenceCallerNumber);
+            mNumberType = (TextView) row.findViewById(R.id.conferenceCallerNumberType);
+            mSeparateButton = row.findViewById(R.id.conferenceCallerSeparate);
+            mEndButton = row.findViewById(R.id.conferenceCallerDisconnect);
+            mSeparateButton.setOnClickListener(this);
+            mEndButton.setOnClickListener(this);
+        }
+
+        /**
+         * Fills out the Conference Call(er) information for the participant.
+         */
+        void bind(Participant participant) {
+            mParticipant = participant;
+
+            // set the caller name
+            mName.setText(participant.name);
+
+            // set the caller number in subscript, or make the field disappear.
+            if (TextUtils.isEmpty(participant.number)) {
+                mNumber.setVisibility(View.GONE);
+                mNumberType.setVisibility(View.GONE);
+            } else {
+                mNumber.setVisibility(View.VISIBLE);
+                mNumber.setText(participant.number);
+                mNumberType.setVisibility(View.VISIBLE);
+                mNumberType.setText(participant.label);
+            }
+
+            mSeparateButton.setEnabled(participant.canSeparate);
+        }
+
+        @Override
+        public void onClick(View v) {
+            if (mParticipant == null) {
+                return;
+            }
+            if (v == mSeparateButton) {
+                getPresenter().separateConferenceConnection(mParticipant);
+            } else if (v == mEndButton) {
+                getPresenter().endConferenceConnection(mParticipant);
+            }
+        }
+    }
+
+    private class ParticipantAdapter extends BaseAdapter {
+        private List<Participant> mParticipants = Lists.newArrayList();
+
+        void setParticipants(List<Participant> participants) {
+            mParticipants = participants;
+            notifyDataSetChanged();
+        }
+
+        @Override
+        public int getCount() {
+            return mParticipants.size();
+        }
+
+        @Override
+        public Participant getItem(int position) {
+            return mParticipants.get(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return mParticipants.get(position).id;
+        }
+
+        @Override
+        public boolean hasStableIds() {
+            return true;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            View row = convertView;
+            if (row == null) {
+                row = LayoutInflater.from(parent.getContext()).inflate(
+                        R.layout.caller_in_conference, parent, false);
+                row.setTag(new ParticipantViewHolder(row));
+            }
+            ((ParticipantViewHolder) row.getTag()).bind(getItem(position));
+            return row;
         }
     }
 }
@@ -17,6 +17,7 @@
 package com.android.incallui;
 
 import android.content.Context;
+import android.text.TextUtils;
 
 import com.android.incallui.ContactInfoCache.ContactCacheEntry;
 import com.android.incallui.InCallPresenter.InCallState;
@@ -24,22 +25,32 @@ import com.android.incallui.InCallPresenter.InCallStateListener;
 import com.android.services.telephony.common.Call;
 import com.android.services.telephony.common.CallDetails;
 
+import com.google.android.collect.Lists;
+import com.google.android.collect.Maps;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableSortedSet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 
 /**
  * Logic for call buttons.
  */
 public class ConferenceManagerPresenter
         extends Presenter<ConferenceManagerPresenter.ConferenceManagerUi>
-        implements InCallStateListener {
+        implements InCallStateListener, ContactInfoCache.NumberLookupCallback {
 
-    private static final int MAX_CALLERS_IN_CONFERENCE = 5;
+    // Call fields the participant rows depend on.
+    private static final int SNAPSHOT_FIELDS = CallListSnapshot.CHANGED_STATE
+            | CallListSnapshot.CHANGED_CONFERENCE | CallListSnapshot.CHANGED_CALL_DETAILS;
 
-    private int mNumCallersInConference;
-    private Integer[] mCallerIds;
-    private String[] mParticipantList;
+    // Participants in the order they are shown, and the same participants by call id or url.
+    private ArrayList<Participant> mParticipants = Lists.newArrayList();
+    private HashMap<Object, Participant> mParticipantsByKey = Maps.newHashMap();
+    // Ids of IMS participants; child call ids are used as the id of the other participants.
+    private long mNextParticipantId = Integer.MAX_VALUE + 1L;
     private Context mContext;
+    private long mLastSnapshotVersion = CallListSnapshot.INVALID_VERSION;
     private static String LOG_TAG = "ConferenceManagerPresenter";
 
     @Override
@@ -55,6 +66,8 @@ public class ConferenceManagerPresenter
         super.onUiUnready(ui);
 
         InCallPresenter.getInstance().removeListener(this);
+        mLastSnapshotVersion = CallListSnapshot.INVALID_VERSION;
+        clearParticipants();
     }
 
     @Override
@@ -66,12 +79,17 @@ public class ConferenceManagerPresenter
                 if (call != null && call.isConferenceCall()) {
                     Log.v(this, "Number of existing calls is " +
                             String.valueOf(call.getChildCallIds().size()));
-                    update(callList);
+                    if (!callList.getSnapshot().isUnchangedSince(mLastSnapshotVersion,
+                            SNAPSHOT_FIELDS)) {
+                        update(callList);
+                    }
                 } else {
                     getUi().setVisible(false);
+                    mLastSnapshotVersion = CallListSnapshot.INVALID_VERSION;
                 }
             } else {
                 getUi().setVisible(false);
+                mLastSnapshotVersion = CallListSnapshot.INVALID_VERSION;
             }
         }
     }
@@ -79,6 +97,8 @@ public class ConferenceManagerPresenter
     public void init(Context context, CallList callList) {
         mContext = Preconditions.checkNotNull(context);
         mContext = context;
+        // The UI may have been recreated, so start over with the full list.
+        clearParticipants();
         update(callList);
     }
 
@@ -87,131 +107,191 @@ public class ConferenceManagerPresenter
                 && call.getCallDetails().getCallDomain() == CallDetails.CALL_DOMAIN_PS;
     }
 
-    private void initParticipantList(CallList callList) {
-        mParticipantList = null;
-        Call call = callList.getActiveOrBackgroundCall();
-
-        if (isImsCall(call)) {
-            String[] confParticipantList = call.getCallDetails().getConfParticipantList();
-            // If conference refresh info xml is present use that information
-            if (confParticipantList != null
-                    && confParticipantList.length > 0) {
-                mParticipantList = confParticipantList;
-                mNumCallersInConference = mParticipantList.length;
-                return;
-            }
-        }
-        mCallerIds = callList.getActiveOrBackgroundCall().getChildCallIds().toArray(new Integer[0]);
-        mNumCallersInConference = mCallerIds.length;
-    }
-
     private void update(CallList callList) {
-        mCallerIds = null;
-        // set mNumCallersInConference and mParticipantList
-        initParticipantList(callList);
-
-        Log.v(this, "Number of calls is " + String.valueOf(mNumCallersInConference));
+        mLastSnapshotVersion = callList.getSnapshot().getVersion();
+        final Call call = callList.getActiveOrBackgroundCall();
+        if (call == null) {
+            return;
+        }
 
         // Users can split out a call from the conference call if there either the active call
         // or the holding call is empty. If both are filled at the moment, users can not split out
         // another call.
         final boolean hasActiveCall = (callList.getActiveCall() != null);
         final boolean hasHoldingCall = (callList.getBackgroundCall() != null);
-        boolean canSeparate = !(hasActiveCall && hasHoldingCall);
-
-        for (int i = 0; i < MAX_CALLERS_IN_CONFERENCE; i++) {
-            if (i < mNumCallersInConference) {
-                // Fill in the row in the UI for this caller.
-                if (mParticipantList == null) {
-                    final ContactCacheEntry contactCache = ContactInfoCache.getInstance(mContext).
-                            getInfo(mCallerIds[i]);
-                    updateManageConferenceRow(i, contactCache, canSeparate);
-                } else {
-                    updateManageConferenceRow(i, mParticipantList[i]);
+        final boolean canSeparate = !(hasActiveCall && hasHoldingCall);
+
+        // If conference refresh info xml is present use that information
+        String[] participantUrls = null;
+        if (isImsCall(call)) {
+            participantUrls = call.getCallDetails().getConfParticipantList();
+            if (participantUrls != null && participantUrls.length == 0) {
+                participantUrls = null;
+            }
+        }
+        final int count = participantUrls != null
+                ? participantUrls.length : call.getChildCallIds().size();
+        Log.v(this, "Number of calls is " + count);
+
+        // Reuse the participant of every key that is still in the conference, so that only
+        // rows whose contents changed are rebound.
+        final HashMap<Object, Participant> previous = mParticipantsByKey;
+        final HashMap<Object, Participant> current = Maps.newHashMap();
+        final ArrayList<Participant> participants = Lists.newArrayList();
+        final ArrayList<Integer> changedRows = Lists.newArrayList();
+        final ArrayList<String> urlsToLookUp = Lists.newArrayList();
+        boolean structureChanged = false;
+
+        int i = 0;
+        if (participantUrls != null) {
+            for (String url : participantUrls) {
+                if (url == null || current.containsKey(url)) {
+                    continue;
                 }
-            } else {
-                // Blank out this row in the UI
-                updateManageConferenceRow(i, null, false);
+                Participant participant = previous.get(url);
+                if (participant == null) {
+                    // Show the url until the contact lookup below completes.
+                    participant = new Participant(mNextParticipantId++, Call.INVALID_CALL_ID, url);
+                    participant.set("", url, "", false);
+                    urlsToLookUp.add(url);
+                }
+                structureChanged |= addParticipant(participant, url, i++, false, current,
+                        participants, changedRows);
+            }
+        } else {
+            final ContactInfoCache cache = ContactInfoCache.getInstance(mContext);
+            for (Integer callId : call.getChildCallIds()) {
+                if (current.containsKey(callId)) {
+                    continue;
+                }
+                Participant participant = previous.get(callId);
+                if (participant == null) {
+                    participant = new Participant(callId, callId, null);
+                }
+                final ContactCacheEntry entry = cache.getInfo(callId);
+                final boolean changed = entry != null
+                        ? participant.set(entry.name, entry.number, entry.label, canSeparate)
+                        : participant.set("", "", "", canSeparate);
+                structureChanged |= addParticipant(participant, callId, i++, changed, current,
+                        participants, changedRows);
             }
         }
+        structureChanged |= participants.size() != mParticipants.size();
+
+        mParticipantsByKey = current;
+        if (structureChanged) {
+            mParticipants = participants;
+            getUi().setParticipants(participants);
+        } else {
+            for (int j = 0; j < changedRows.size(); j++) {
+                getUi().updateParticipant(changedRows.get(j));
+            }
+        }
+
+        // Resolve the new IMS participants with one query; rows update as results arrive.
+        if (!urlsToLookUp.isEmpty()) {
+            ContactInfoCache.getInstance(mContext).findInfoForNumbers(urlsToLookUp, this);
+        }
     }
 
-    /**
-      * Updates a single row of the "Manage conference" UI.  (One row in this
-      * UI represents a single caller in the conference.)
-      *
-      * @param i the row to update
-      * @param contactCacheEntry the contact details corresponding to this caller.
-      *        If null, that means this is an "empty slot" in the conference,
-      *        so hide this row in the UI.
-      * @param canSeparate if true, show a "Separate" (i.e. "Private") button
-      *        on this row in the UI.
-      */
-    public void updateManageConferenceRow(final int i,
-                                          final ContactCacheEntry contactCacheEntry,
-                                          boolean canSeparate) {
-
-        if (contactCacheEntry != null) {
-            // Activate this row of the Manage conference panel:
-            getUi().setRowVisible(i, true);
-
-            final String name = contactCacheEntry.name;
-            final String number = contactCacheEntry.number;
-
-            if (canSeparate) {
-                getUi().setCanSeparateButtonForRow(i, canSeparate);
+    @Override
+    public void onNumberInfoComplete(String url, ContactCacheEntry entry) {
+        final Participant participant = mParticipantsByKey.get(url);
+        if (participant == null || getUi() == null) {
+            // Left the conference, or the UI is gone, while the lookup was running.
+            return;
+        }
+        if (participant.set(entry.name, entry.number, entry.label, false)) {
+            final int position = mParticipants.indexOf(participant);
+            if (position >= 0) {
+                getUi().updateParticipant(position);
             }
-            // display the CallerInfo.
-            getUi().setupEndButtonForRow(i);
-            getUi().displayCallerInfoForConferenceRow(i, name, number, contactCacheEntry.label);
-        } else {
-            // Disable this row of the Manage conference panel:
-            getUi().setRowVisible(i, false);
         }
     }
 
-    public void updateManageConferenceRow(final int i, final String url) {
-        if (url != null) {
-            getUi().setRowVisible(i, true);
-            getUi().setupEndButtonForRowWithUrl(i, url);
-            getUi().displayCallerInfoForConferenceRow(i, "", url, "");
-        } else {
-            // Disable this row of the Manage conference panel:
-            getUi().setRowVisible(i, false);
+    /**
+     * Appends the participant to the new list and records whether its row must be rebound.
+     *
+     * @return true if the participant is not at the same position as in the previous list.
+     */
+    private boolean addParticipant(Participant participant, Object key, int position,
+            boolean changed, HashMap<Object, Participant> current,
+            ArrayList<Participant> participants, ArrayList<Integer> changedRows) {
+        current.put(key, participant);
+        participants.add(participant);
+        if (changed) {
+            changedRows.add(position);
         }
+        return position >= mParticipants.size() || mParticipants.get(position) != participant;
+    }
+
+    /**
+     * Forgets the participants shown so far; the next update sends the whole list to the UI.
+     */
+    private void clearParticipants() {
+        mParticipants = Lists.newArrayList();
+        mParticipantsByKey = Maps.newHashMap();
     }
 
     public void manageConferenceDoneClicked() {
         getUi().setVisible(false);
     }
 
-    public int getMaxCallersInConference() {
-        return MAX_CALLERS_IN_CONFERENCE;
+    public void separateConferenceConnection(Participant participant) {
+        CallCommandClient.getInstance().separateCall(participant.callId);
     }
 
-    public void separateConferenceConnection(int rowId) {
-        CallCommandClient.getInstance().separateCall(mCallerIds[rowId]);
+    public void endConferenceConnection(Participant participant) {
+        if (participant.url != null) {
+            CallCommandClient.getInstance().hangupWithReason(-1, participant.url,
+                    true, Call.DisconnectCause.NORMAL.ordinal(), "");
+        } else {
+            CallCommandClient.getInstance().disconnectCall(participant.callId);
+        }
     }
 
-    public void endConferenceConnection(int rowId) {
-        CallCommandClient.getInstance().disconnectCall(mCallerIds[rowId]);
-    }
+    /**
+     * One caller in the conference. A participant stays the same object for as long as the
+     * caller is in the conference, so it can be used as a stable list item.
+     */
+    public static class Participant {
+        public final long id;
+        // Child call of the conference, or INVALID_CALL_ID for IMS participants.
+        public final int callId;
+        // Participant url of an IMS conference, null otherwise.
+        public final String url;
+        public String name;
+        public String number;
+        public String label;
+        public boolean canSeparate;
+
+        private Participant(long id, int callId, String url) {
+            this.id = id;
+            this.callId = callId;
+            this.url = url;
+        }
 
-    public void endConferenceConnectionUrl(int rowId , String url) {
-        CallCommandClient.getInstance().hangupWithReason(-1, url,
-                true, Call.DisconnectCause.NORMAL.ordinal(), "");
+        /**
+         * @return true if any of the values changed.
+         */
+        private boolean set(String name, String number, String label, boolean canSeparate) {
+            if (TextUtils.equals(this.name, name) && TextUtils.equals(this.number, number)
+                    && TextUtils.equals(this.label, label) && this.canSeparate == canSeparate) {
+                return false;
+            }
+            this.name = name;
+            this.number = number;
+            this.label = label;
+            this.canSeparate = canSeparate;
+            return true;
+        }
     }
 
     public interface ConferenceManagerUi extends Ui {
         void setVisible(boolean on);
         boolean isFragmentVisible();
-        void setRowVisible(int rowId, boolean on);
-        void displayCallerInfoForConferenceRow(int rowId, String callerName, String callerNumber,
-                String callerNumberType);
-        void setCanSeparateButtonForRow(int rowId, boolean canSeparate);
-        void setupEndButtonForRow(int rowId);
-
-        void setupEndButtonForRowWithUrl(int rowId, String url);
+        void setParticipants(List<Participant> participants);
+        void updateParticipant(int position);
         void startConferenceTime(long base);
         void stopConferenceTime();
     }
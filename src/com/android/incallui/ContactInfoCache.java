@@ -16,17 +16,28 @@
 
 package com.android.incallui;
 
+import android.content.AsyncQueryHandler;
 import android.content.ContentUris;
 import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
+import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
 import android.provider.ContactsContract.Contacts;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.CommonDataKinds.SipAddress;
+import android.provider.ContactsContract.Data;
 import android.telephony.PhoneNumberUtils;
 import android.text.TextUtils;
+import android.text.format.DateUtils;
+import android.util.LruCache;
+import android.util.SparseLongArray;
 
 import com.android.dialer.calllog.ContactInfo;
 import com.android.dialer.cmstats.DialerStats;
@@ -42,6 +53,7 @@ import com.google.android.collect.Sets;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
@@ -56,12 +68,45 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
 
     private static final String TAG = ContactInfoCache.class.getSimpleName();
     private static final int TOKEN_UPDATE_PHOTO_FOR_CALL_STATE = 0;
+    private static final int TOKEN_NUMBER_BATCH = 0;
+
+    private static final String[] NUMBER_BATCH_PROJECTION = new String[] {
+        Data.MIMETYPE,
+        Data.DATA1, // Phone.NUMBER, SipAddress.SIP_ADDRESS
+        Phone.NORMALIZED_NUMBER,
+        Phone.TYPE,
+        Phone.LABEL,
+        Data.DISPLAY_NAME,
+        Data.CONTACT_ID,
+    };
+    private static final int NUMBER_BATCH_MIMETYPE = 0;
+    private static final int NUMBER_BATCH_DATA1 = 1;
+    private static final int NUMBER_BATCH_NORMALIZED_NUMBER = 2;
+    private static final int NUMBER_BATCH_TYPE = 3;
+    private static final int NUMBER_BATCH_LABEL = 4;
+    private static final int NUMBER_BATCH_DISPLAY_NAME = 5;
+    private static final int NUMBER_BATCH_CONTACT_ID = 6;
 
     private final Context mContext;
     private final PhoneNumberService mPhoneNumberService;
     private final HashMap<Integer, ContactCacheEntry> mInfoMap = Maps.newHashMap();
     private final HashMap<Integer, Set<ContactInfoCacheCallback>> mCallBacks = Maps.newHashMap();
 
+    // Completed lookups keyed by normalized number, kept across calls so that repeat callers
+    // are answered without querying the provider. Emptied whenever contacts change.
+    private final LruCache<String, NumberCacheEntry> mNumberCache;
+    private final long mNumberCacheTtlMs;
+    // Results of batch lookups by normalized number. Kept apart from mNumberCache because
+    // they come without photos. Emptied whenever contacts change.
+    private final LruCache<String, ContactCacheEntry> mBatchNumberCache;
+    private AsyncQueryHandler mBatchQueryHandler;
+    // Number cache key of each lookup that is still running, by call id.
+    private final HashMap<Integer, NumberCacheKey> mPendingNumberKeys = Maps.newHashMap();
+    // Photo URI of each photo load that is still running, by call id.
+    private final HashMap<Integer, Uri> mPendingPhotoUris = Maps.newHashMap();
+    // Uptime at which the provider lookup for a call id started, for latency tracing.
+    private final SparseLongArray mLookupStartTimes = new SparseLongArray();
+
     private static ContactInfoCache sCache = null;
 
     public static synchronized ContactInfoCache getInstance(Context mContext) {
@@ -74,6 +119,28 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
     private ContactInfoCache(Context context) {
         mContext = context;
         mPhoneNumberService = ServiceFactory.newPhoneNumberService(context);
+
+        mNumberCache = new LruCache<String, NumberCacheEntry>(
+                context.getResources().getInteger(R.integer.config_contact_cache_size)) {
+            @Override
+            protected void entryRemoved(boolean evicted, String key, NumberCacheEntry oldValue,
+                    NumberCacheEntry newValue) {
+                releasePhoto(oldValue.entry);
+            }
+        };
+        mBatchNumberCache = new LruCache<String, ContactCacheEntry>(
+                context.getResources().getInteger(R.integer.config_contact_cache_size));
+        mNumberCacheTtlMs = context.getResources().getInteger(
+                R.integer.config_contact_cache_ttl_minutes) * DateUtils.MINUTE_IN_MILLIS;
+        context.getContentResolver().registerContentObserver(ContactsContract.AUTHORITY_URI,
+                true, new ContentObserver(new Handler(Looper.getMainLooper())) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        Log.d(TAG, "Contacts changed, clearing number cache");
+                        mNumberCache.evictAll();
+                        mBatchNumberCache.evictAll();
+                    }
+                });
     }
 
     public ContactCacheEntry getInfo(int callId) {
@@ -91,6 +158,25 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
         return entry;
     }
 
+    /**
+     * Starts the contact lookup for a call before anything displays it, so that the name and
+     * photo are usually cached by the time the UI calls {@link #findInfo}.
+     */
+    public void prefetchInfo(CallIdentification identification, boolean isIncoming) {
+        findInfo(identification, isIncoming, PREFETCH_CALLBACK);
+    }
+
+    private static final ContactInfoCacheCallback PREFETCH_CALLBACK =
+            new ContactInfoCacheCallback() {
+        @Override
+        public void onContactInfoComplete(int callId, ContactCacheEntry entry) {
+        }
+
+        @Override
+        public void onImageLoadComplete(int callId, ContactCacheEntry entry) {
+        }
+    };
+
     private class FindInfoCallback implements CallerInfoAsyncQuery.OnQueryCompleteListener {
         private final boolean mIsIncoming;
 
@@ -124,8 +210,8 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
 
         // If we have a previously obtained intermediate result return that now
         if (cacheEntry != null) {
-            Log.d(TAG, "Contact lookup. In memory cache hit; lookup "
-                    + (callBacks == null ? "complete" : "still running"));
+            Log.d(TAG, "Contact lookup. In memory cache hit; lookup ",
+                    callBacks == null ? "complete" : "still running");
             callback.onContactInfoComplete(callId, cacheEntry);
             // If no other callbacks are in flight, we're done.
             if (callBacks == null) {
@@ -138,11 +224,32 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
             callBacks.add(callback);
             return;
         }
+
+        // A repeat caller may have been looked up during an earlier call.
+        final NumberCacheKey numberKey = NumberCacheKey.forIdentification(identification,
+                isIncoming);
+        if (numberKey != null && cacheEntry == null) {
+            final ContactCacheEntry numberEntry = getFromNumberCache(numberKey);
+            if (numberEntry != null) {
+                Log.d(TAG, "Contact lookup. Number cache hit.");
+                mInfoMap.put(callId, numberEntry);
+                callback.onContactInfoComplete(callId, numberEntry);
+                if (numberEntry.photo != null) {
+                    callback.onImageLoadComplete(callId, numberEntry);
+                }
+                return;
+            }
+        }
+
         Log.d(TAG, "Contact lookup. In memory cache miss; searching provider.");
         // New lookup
         callBacks = Sets.newHashSet();
         callBacks.add(callback);
         mCallBacks.put(callId, callBacks);
+        mLookupStartTimes.put(callId, SystemClock.uptimeMillis());
+        if (numberKey != null) {
+            mPendingNumberKeys.put(callId, numberKey);
+        }
 
         /**
          * Performs a query for caller information.
@@ -187,6 +294,7 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
                 Log.d(TAG, "Contact lookup. Local contact found, starting image load");
                 // Load the image with a callback to update the image state.
                 // When the load is finished, onImageLoadComplete() will be called.
+                mPendingPhotoUris.put(callId, cacheEntry.personUri);
                 ContactsAsyncHelper.startObtainPhotoAsync(TOKEN_UPDATE_PHOTO_FOR_CALL_STATE,
                         mContext, cacheEntry.personUri, ContactInfoCache.this, callId);
             } else {
@@ -203,6 +311,264 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
         }
     }
 
+    /**
+     * Looks up the contact info of several numbers or SIP/tel URIs, e.g. the participants of
+     * an IMS conference, with a single provider query. Numbers found in the cache are
+     * reported right away, the rest when the query completes; every number is reported
+     * exactly once, with an entry that only has the number if there is no matching contact.
+     * Entries come without photos.
+     */
+    public void findInfoForNumbers(List<String> numbers, NumberLookupCallback callback) {
+        Preconditions.checkState(Looper.getMainLooper().getThread() == Thread.currentThread());
+        Preconditions.checkNotNull(callback);
+
+        final NumberBatch batch = new NumberBatch(callback);
+        final String countryIso = CallerInfo.getCurrentCountryIso(mContext);
+        for (String number : numbers) {
+            final String lookupNumber = getLookupNumber(number);
+            if (TextUtils.isEmpty(lookupNumber)) {
+                // Nothing to look up.
+                callback.onNumberInfoComplete(number, buildNumberOnlyEntry(number));
+                continue;
+            }
+            final boolean isSip = PhoneNumberUtils.isUriNumber(lookupNumber);
+            final String normalized = isSip
+                    ? lookupNumber.toLowerCase() : PhoneNumberUtils.normalizeNumber(lookupNumber);
+            if (TextUtils.isEmpty(normalized)) {
+                // No dialable digits, so no contact can match it.
+                callback.onNumberInfoComplete(number, buildNumberOnlyEntry(lookupNumber));
+                continue;
+            }
+
+            final ContactCacheEntry entry = mBatchNumberCache.get(normalized);
+            if (entry != null) {
+                callback.onNumberInfoComplete(number, entry);
+            } else {
+                batch.add(number, lookupNumber, normalized, isSip,
+                        isSip ? null : PhoneNumberUtils.formatNumberToE164(lookupNumber,
+                                countryIso));
+            }
+        }
+        if (batch.numbers.isEmpty()) {
+            return;
+        }
+
+        Log.d(TAG, "Contact batch lookup. Searching provider for numbers: ",
+                batch.numbers.size());
+        if (mBatchQueryHandler == null) {
+            mBatchQueryHandler = new AsyncQueryHandler(mContext.getContentResolver()) {
+                @Override
+                protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
+                    try {
+                        ((NumberBatch) cookie).onQueryComplete(cursor);
+                    } finally {
+                        if (cursor != null) {
+                            cursor.close();
+                        }
+                    }
+                }
+            };
+        }
+        final ArrayList<String> selectionArgs = Lists.newArrayList();
+        mBatchQueryHandler.startQuery(TOKEN_NUMBER_BATCH, batch, Data.CONTENT_URI,
+                NUMBER_BATCH_PROJECTION, batch.buildSelection(selectionArgs),
+                selectionArgs.toArray(new String[selectionArgs.size()]), null);
+    }
+
+    /**
+     * Returns an entry for a number that has no matching contact, showing just the number.
+     */
+    private ContactCacheEntry buildNumberOnlyEntry(String number) {
+        final CallerInfo info = new CallerInfo();
+        info.phoneNumber = number;
+        final ContactCacheEntry entry = new ContactCacheEntry();
+        populateCacheEntry(mContext, info, entry, Call.PRESENTATION_ALLOWED, false);
+        return entry;
+    }
+
+    /**
+     * Returns the number or SIP address to look up for a number or URI: the "tel:" or "sip:"
+     * scheme and any parameters are dropped, and SIP addresses whose user part is a phone
+     * number are looked up by that number.
+     */
+    private static String getLookupNumber(String number) {
+        if (TextUtils.isEmpty(number)) {
+            return null;
+        }
+        String lookupNumber = number;
+        final int colon = lookupNumber.indexOf(':');
+        if (colon >= 0) {
+            final String scheme = lookupNumber.substring(0, colon);
+            if ("tel".equalsIgnoreCase(scheme) || "sip".equalsIgnoreCase(scheme)
+                    || "sips".equalsIgnoreCase(scheme)) {
+                lookupNumber = lookupNumber.substring(colon + 1);
+            }
+        }
+        final int params = lookupNumber.indexOf(';');
+        if (params >= 0) {
+            lookupNumber = lookupNumber.substring(0, params);
+        }
+        if (PhoneNumberUtils.isUriNumber(lookupNumber)) {
+            final String user = PhoneNumberUtils.getUsernameFromUriNumber(lookupNumber);
+            if (PhoneNumberUtils.isGlobalPhoneNumber(user)) {
+                lookupNumber = user;
+            }
+        }
+        return lookupNumber;
+    }
+
+    /**
+     * One provider query for the numbers of a {@link #findInfoForNumbers} call that were not
+     * cached.
+     */
+    private class NumberBatch {
+        private final NumberLookupCallback mCallback;
+        private final long mStartTime = SystemClock.uptimeMillis();
+        // Parallel lists, one element per requested number.
+        final ArrayList<String> numbers = Lists.newArrayList();
+        private final ArrayList<String> mLookupNumbers = Lists.newArrayList();
+        private final ArrayList<String> mNormalizedNumbers = Lists.newArrayList();
+        private final ArrayList<String> mE164Numbers = Lists.newArrayList();
+        private final ArrayList<Boolean> mIsSip = Lists.newArrayList();
+
+        NumberBatch(NumberLookupCallback callback) {
+            mCallback = callback;
+        }
+
+        void add(String number, String lookupNumber, String normalized, boolean isSip,
+                String e164) {
+            numbers.add(number);
+            mLookupNumbers.add(lookupNumber);
+            mNormalizedNumbers.add(normalized);
+            mIsSip.add(isSip);
+            mE164Numbers.add(e164);
+        }
+
+        /**
+         * Phone numbers match on the normalized (E.164) number the provider stores, or on the
+         * number exactly as stored; SIP addresses match on the address.
+         */
+        String buildSelection(ArrayList<String> args) {
+            final ArrayList<String> phoneArgs = Lists.newArrayList();
+            final ArrayList<String> e164Args = Lists.newArrayList();
+            final ArrayList<String> sipArgs = Lists.newArrayList();
+            for (int i = 0; i < numbers.size(); i++) {
+                if (mIsSip.get(i)) {
+                    sipArgs.add(mLookupNumbers.get(i));
+                } else {
+                    phoneArgs.add(mLookupNumbers.get(i));
+                    if (mE164Numbers.get(i) != null) {
+                        e164Args.add(mE164Numbers.get(i));
+                    }
+                }
+            }
+
+            final StringBuilder selection = new StringBuilder();
+            if (!phoneArgs.isEmpty()) {
+                selection.append('(').append(Data.MIMETYPE).append("=? AND (")
+                        .append(Phone.NUMBER).append(" IN (")
+                        .append(placeholders(phoneArgs.size())).append(')');
+                args.add(Phone.CONTENT_ITEM_TYPE);
+                args.addAll(phoneArgs);
+                if (!e164Args.isEmpty()) {
+                    selection.append(" OR ").append(Phone.NORMALIZED_NUMBER).append(" IN (")
+                            .append(placeholders(e164Args.size())).append(')');
+                    args.addAll(e164Args);
+                }
+                selection.append("))");
+            }
+            if (!sipArgs.isEmpty()) {
+                if (selection.length() > 0) {
+                    selection.append(" OR ");
+                }
+                selection.append('(').append(Data.MIMETYPE).append("=? AND ")
+                        .append(SipAddress.SIP_ADDRESS).append(" IN (")
+                        .append(placeholders(sipArgs.size())).append("))");
+                args.add(SipAddress.CONTENT_ITEM_TYPE);
+                args.addAll(sipArgs);
+            }
+            return selection.toString();
+        }
+
+        void onQueryComplete(Cursor cursor) {
+            final boolean[] found = new boolean[numbers.size()];
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    final boolean isSipRow = SipAddress.CONTENT_ITEM_TYPE.equals(
+                            cursor.getString(NUMBER_BATCH_MIMETYPE));
+                    final String data = cursor.getString(NUMBER_BATCH_DATA1);
+                    final String rowNormalized =
+                            cursor.getString(NUMBER_BATCH_NORMALIZED_NUMBER);
+                    for (int i = 0; i < found.length; i++) {
+                        if (!found[i] && matches(i, isSipRow, data, rowNormalized)) {
+                            found[i] = true;
+                            report(i, buildEntry(i, cursor, isSipRow));
+                        }
+                    }
+                }
+            }
+            for (int i = 0; i < found.length; i++) {
+                if (!found[i]) {
+                    report(i, buildEntry(i, null, false));
+                }
+            }
+            InCallTrace.record(InCallTrace.CONFERENCE_LOOKUP,
+                    SystemClock.uptimeMillis() - mStartTime);
+            Log.d(TAG, "Contact batch lookup done. Numbers: ", found.length);
+        }
+
+        private boolean matches(int i, boolean isSipRow, String data, String rowNormalized) {
+            if (isSipRow != mIsSip.get(i)) {
+                return false;
+            }
+            if (isSipRow) {
+                return mLookupNumbers.get(i).equalsIgnoreCase(data);
+            }
+            return TextUtils.equals(mLookupNumbers.get(i), data)
+                    || (mE164Numbers.get(i) != null
+                            && mE164Numbers.get(i).equals(rowNormalized));
+        }
+
+        private ContactCacheEntry buildEntry(int i, Cursor cursor, boolean isSipRow) {
+            final CallerInfo info = new CallerInfo();
+            info.phoneNumber = mLookupNumbers.get(i);
+            if (cursor != null) {
+                info.name = cursor.getString(NUMBER_BATCH_DISPLAY_NAME);
+                info.person_id = cursor.getLong(NUMBER_BATCH_CONTACT_ID);
+                info.contactExists = true;
+                if (!isSipRow) {
+                    info.numberType = cursor.getInt(NUMBER_BATCH_TYPE);
+                    info.numberLabel = cursor.getString(NUMBER_BATCH_LABEL);
+                    info.phoneLabel = Phone.getDisplayLabel(mContext, info.numberType,
+                            info.numberLabel).toString();
+                }
+            }
+            final ContactCacheEntry entry = new ContactCacheEntry();
+            populateCacheEntry(mContext, info, entry, Call.PRESENTATION_ALLOWED, false);
+            if (info.person_id != 0) {
+                entry.personUri = ContentUris.withAppendedId(Contacts.CONTENT_URI,
+                        info.person_id);
+            }
+            return entry;
+        }
+
+        private void report(int i, ContactCacheEntry entry) {
+            mBatchNumberCache.put(mNormalizedNumbers.get(i), entry);
+            mCallback.onNumberInfoComplete(numbers.get(i), entry);
+        }
+    }
+
+    private static String placeholders(int count) {
+        final StringBuilder builder = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append('?');
+        }
+        return builder.toString();
+    }
+
     public class ReverseLookupListener {
         private final int mCallId;
 
@@ -331,8 +697,16 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
         final int callId = (Integer) cookie;
         final ContactCacheEntry entry = mInfoMap.get(callId);
 
+        // Photos from ContactsAsyncHelper are held for us until we release them. A failed
+        // load holds nothing, but its pending entry must go all the same.
+        final Uri pendingPhotoUri = mPendingPhotoUris.remove(callId);
+        final Uri heldPhotoUri = photo != null ? pendingPhotoUri : null;
+
         if (entry == null) {
             Log.e(this, "Image Load received for empty search entry.");
+            if (heldPhotoUri != null) {
+                ContactsAsyncHelper.releasePhoto(heldPhotoUri);
+            }
             clearCallbacks(callId);
             return;
         }
@@ -342,6 +716,7 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
         if (photo != null) {
             Log.v(this, "direct drawable: ", photo);
             entry.photo = photo;
+            entry.heldPhotoUri = heldPhotoUri;
         } else if (photoIcon != null) {
             Log.v(this, "photo icon: ", photoIcon);
             entry.photo = new BitmapDrawable(mContext.getResources(), photoIcon);
@@ -362,8 +737,13 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
      * Blows away the stored cache values.
      */
     public void clearCache() {
+        for (ContactCacheEntry entry : mInfoMap.values()) {
+            releasePhoto(entry);
+        }
         mInfoMap.clear();
         mCallBacks.clear();
+        mPendingNumberKeys.clear();
+        mLookupStartTimes.clear();
     }
 
     private ContactCacheEntry buildEntry(Context context, int callId,
@@ -539,6 +919,117 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
 
     private void clearCallbacks(int callId) {
         mCallBacks.remove(callId);
+
+        final long lookupStart = mLookupStartTimes.get(callId, -1);
+        if (lookupStart >= 0) {
+            mLookupStartTimes.delete(callId);
+            InCallTrace.record(InCallTrace.CONTACT_LOOKUP,
+                    SystemClock.uptimeMillis() - lookupStart);
+        }
+
+        // The lookup pipeline for this call is done, so its result can serve repeat callers.
+        final NumberCacheKey numberKey = mPendingNumberKeys.remove(callId);
+        final ContactCacheEntry entry = mInfoMap.get(callId);
+        if (numberKey != null && entry != null) {
+            final ContactCacheEntry copy = entry.copy();
+            holdPhoto(copy);
+            mNumberCache.put(numberKey.number, new NumberCacheEntry(numberKey, copy,
+                    SystemClock.elapsedRealtime() + mNumberCacheTtlMs));
+        }
+    }
+
+    private static void holdPhoto(ContactCacheEntry entry) {
+        if (entry.heldPhotoUri != null) {
+            ContactsAsyncHelper.holdPhoto(entry.heldPhotoUri);
+        }
+    }
+
+    private static void releasePhoto(ContactCacheEntry entry) {
+        if (entry.heldPhotoUri != null) {
+            ContactsAsyncHelper.releasePhoto(entry.heldPhotoUri);
+        }
+    }
+
+    private ContactCacheEntry getFromNumberCache(NumberCacheKey key) {
+        final NumberCacheEntry cached = mNumberCache.get(key.number);
+        if (cached == null) {
+            return null;
+        }
+        if (cached.expiresAt < SystemClock.elapsedRealtime()) {
+            mNumberCache.remove(key.number);
+            return null;
+        }
+        if (!cached.key.equals(key)) {
+            return null;
+        }
+        // Hand out a copy; entries are updated in place and photos are bound to views.
+        final ContactCacheEntry entry = cached.entry.copy();
+        if (entry.photo != null && entry.photo.getConstantState() != null) {
+            entry.photo = entry.photo.getConstantState().newDrawable(mContext.getResources());
+        }
+        holdPhoto(entry);
+        return entry;
+    }
+
+    /**
+     * Identifies which lookups a number cache entry can answer. Besides the number, the
+     * result depends on whether the call is incoming (location) and on the network CNAP name.
+     */
+    private static final class NumberCacheKey {
+        final String number;
+        final boolean isIncoming;
+        final String cnapName;
+
+        private NumberCacheKey(String number, boolean isIncoming, String cnapName) {
+            this.number = number;
+            this.isIncoming = isIncoming;
+            this.cnapName = cnapName;
+        }
+
+        /**
+         * Returns the key for the identification, or null if its result must not be cached.
+         */
+        static NumberCacheKey forIdentification(CallIdentification identification,
+                boolean isIncoming) {
+            final String number = identification.getNumber();
+            if (TextUtils.isEmpty(number)
+                    || identification.getNumberPresentation() != Call.PRESENTATION_ALLOWED) {
+                return null;
+            }
+            final String normalized = PhoneNumberUtils.isUriNumber(number)
+                    ? number.toLowerCase() : PhoneNumberUtils.normalizeNumber(number);
+            if (TextUtils.isEmpty(normalized)) {
+                return null;
+            }
+            return new NumberCacheKey(normalized, isIncoming, identification.getCnapName());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof NumberCacheKey)) {
+                return false;
+            }
+            final NumberCacheKey other = (NumberCacheKey) o;
+            return number.equals(other.number) && isIncoming == other.isIncoming
+                    && TextUtils.equals(cnapName, other.cnapName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(number, isIncoming, cnapName);
+        }
+    }
+
+    private static final class NumberCacheEntry {
+        final NumberCacheKey key;
+        final ContactCacheEntry entry;
+        final long expiresAt;
+
+        NumberCacheEntry(NumberCacheKey key, ContactCacheEntry entry, long expiresAt) {
+            this.key = key;
+            this.entry = entry;
+            this.expiresAt = expiresAt;
+        }
     }
 
     /**
@@ -562,6 +1053,18 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
         public void onImageLoadComplete(int callId, ContactCacheEntry entry);
     }
 
+    /**
+     * Callback interface for {@link #findInfoForNumbers}.
+     */
+    public interface NumberLookupCallback {
+        /**
+         * Called once for each requested number, as soon as its contact info is known.
+         *
+         * @param number The number or URI exactly as it was passed in.
+         */
+        public void onNumberInfoComplete(String number, ContactCacheEntry entry);
+    }
+
     public static class ContactCacheEntry {
         public String name;
         public String number;
@@ -570,6 +1073,20 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
         public Drawable photo;
         public boolean isSipCall;
         public Uri personUri; // Used for local photo load
+        /* package */ Uri heldPhotoUri; // Set while photo is held from ContactsAsyncHelper
+
+        /* package */ ContactCacheEntry copy() {
+            final ContactCacheEntry copy = new ContactCacheEntry();
+            copy.name = name;
+            copy.number = number;
+            copy.location = location;
+            copy.label = label;
+            copy.photo = photo;
+            copy.isSipCall = isSipCall;
+            copy.personUri = personUri;
+            copy.heldPhotoUri = heldPhotoUri;
+            return copy;
+        }
 
         @Override
         public String toString() {
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.util.LruCache;
+
+import com.google.android.collect.Lists;
+import com.google.android.collect.Maps;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Byte-budgeted cache of decoded contact photos, keyed by photo URI. Each entry holds the
+ * full-size bitmap and the notification-size icon so neither is decoded or scaled twice.
+ * <p>
+ * Bitmaps handed out are pinned until released. Once an entry has been evicted and is no
+ * longer pinned its bitmaps are kept for reuse as {@code inBitmap} by the next decode, so
+ * loading new photos does not allocate. Accessed from the main thread and the photo worker.
+ */
+/* package */ class ContactPhotoCache {
+
+    // Share of the per-app heap the cache may use.
+    private static final int HEAP_FRACTION = 16;
+    private static final int MAX_REUSABLE_BITMAPS = 4;
+
+    /* package */ static final class Photo {
+        final Bitmap full;
+        final Bitmap icon;
+
+        Photo(Bitmap full, Bitmap icon) {
+            this.full = full;
+            this.icon = icon;
+        }
+
+        int getByteCount() {
+            int bytes = full.getAllocationByteCount();
+            if (icon != null && icon != full) {
+                bytes += icon.getAllocationByteCount();
+            }
+            return bytes;
+        }
+    }
+
+    private final LruCache<Uri, Photo> mCache;
+    private final HashMap<Uri, Integer> mPinCounts = Maps.newHashMap();
+    // Evicted while still pinned; moved to mReusable once the last pin is released.
+    private final HashMap<Uri, Photo> mEvictedPinned = Maps.newHashMap();
+    private final ArrayList<Bitmap> mReusable = Lists.newArrayList();
+
+    ContactPhotoCache(Context context) {
+        final ActivityManager am =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        final int budgetBytes = am.getMemoryClass() * 1024 * 1024 / HEAP_FRACTION;
+        Log.d(this, "Photo cache budget: " + budgetBytes + " bytes");
+
+        mCache = new LruCache<Uri, Photo>(budgetBytes) {
+            @Override
+            protected int sizeOf(Uri uri, Photo photo) {
+                return photo.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Uri uri, Photo oldPhoto,
+                    Photo newPhoto) {
+                // Called with the cache lock held by our synchronized callers.
+                if (mPinCounts.containsKey(uri)) {
+                    mEvictedPinned.put(uri, oldPhoto);
+                } else {
+                    addReusable(oldPhoto);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the cached photo and pins it, or null on a miss.
+     */
+    synchronized Photo acquire(Uri uri) {
+        final Photo photo = mCache.get(uri);
+        if (photo != null) {
+            pin(uri);
+        }
+        return photo;
+    }
+
+    /**
+     * Caches a freshly decoded photo and pins it for the caller.
+     */
+    synchronized void putAndAcquire(Uri uri, Photo photo) {
+        pin(uri);
+        mCache.put(uri, photo);
+    }
+
+    /**
+     * Pins the photo again for an additional holder.
+     */
+    synchronized void pin(Uri uri) {
+        final Integer count = mPinCounts.get(uri);
+        mPinCounts.put(uri, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Releases one pin. Must be balanced with {@link #acquire}, {@link #putAndAcquire} or
+     * {@link #pin}.
+     */
+    synchronized void release(Uri uri) {
+        final Integer count = mPinCounts.get(uri);
+        if (count == null) {
+            Log.w(this, "Releasing photo that is not pinned: " + uri);
+            return;
+        }
+        if (count > 1) {
+            mPinCounts.put(uri, count - 1);
+            return;
+        }
+        mPinCounts.remove(uri);
+        final Photo evicted = mEvictedPinned.remove(uri);
+        if (evicted != null) {
+            addReusable(evicted);
+        }
+    }
+
+    /**
+     * Returns a bitmap that can be passed as {@code inBitmap} to decode an image of the given
+     * size, or null if none is large enough.
+     */
+    synchronized Bitmap takeReusable(int width, int height, Bitmap.Config config) {
+        final int bytes = width * height * bytesPerPixel(config);
+        for (int i = 0; i < mReusable.size(); i++) {
+            final Bitmap candidate = mReusable.get(i);
+            if (candidate.getAllocationByteCount() >= bytes) {
+                mReusable.remove(i);
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private void addReusable(Photo photo) {
+        addReusable(photo.full);
+        if (photo.icon != photo.full) {
+            addReusable(photo.icon);
+        }
+    }
+
+    private void addReusable(Bitmap bitmap) {
+        if (bitmap == null || !bitmap.isMutable() || bitmap.isRecycled()) {
+            return;
+        }
+        if (mReusable.size() >= MAX_REUSABLE_BITMAPS) {
+            mReusable.remove(0);
+        }
+        mReusable.add(bitmap);
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        } else if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 4;
+    }
+}
@@ -20,6 +20,7 @@ import android.app.Notification;
 import android.content.ContentUris;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
@@ -27,6 +28,7 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.provider.ContactsContract.Contacts;
 
 import java.io.IOException;
@@ -81,6 +83,9 @@ public class ContactsAsyncHelper {
     /** Handler run on a worker thread to load photo asynchronously. */
     private static Handler sThreadHandler;
 
+    /** Decoded photos, shared by every load. Created on first use. */
+    private static ContactPhotoCache sPhotoCache;
+
     /** For forcing the system to call its constructor */
     @SuppressWarnings("unused")
     private static ContactsAsyncHelper sInstance;
@@ -175,6 +180,12 @@ public class ContactsAsyncHelper {
      * the images.
      */
     private class WorkerHandler extends Handler {
+        private static final int INITIAL_READ_BUFFER_SIZE = 32 * 1024;
+
+        private final BitmapFactory.Options mDecodeOptions = new BitmapFactory.Options();
+        private final byte[] mDecodeStorage = new byte[16 * 1024];
+        private byte[] mReadBuffer = new byte[INITIAL_READ_BUFFER_SIZE];
+
         public WorkerHandler(Looper looper) {
             super(looper);
         }
@@ -194,13 +205,21 @@ public class ContactsAsyncHelper {
                             Log.e(this, "Error opening photo input stream", e);
                         }
 
-                        if (inputStream != null) {
-                            args.photo = Drawable.createFromStream(inputStream,
-                                    args.uri.toString());
-
-                            // This assumes Drawable coming from contact database is usually
-                            // BitmapDrawable and thus we can have (down)scaled version of it.
-                            args.photoIcon = getPhotoIconWhenAppropriate(args.context, args.photo);
+                        final long decodeStart = SystemClock.uptimeMillis();
+                        final Bitmap bitmap = inputStream != null
+                                ? decodePhoto(inputStream) : null;
+                        if (bitmap != null) {
+                            InCallTrace.record(InCallTrace.PHOTO_DECODE,
+                                    SystemClock.uptimeMillis() - decodeStart);
+                        }
+                        if (bitmap != null) {
+                            // Keep both sizes so neither is decoded or scaled again.
+                            final ContactPhotoCache.Photo photo = new ContactPhotoCache.Photo(
+                                    bitmap, getPhotoIconWhenAppropriate(args.context, bitmap));
+                            sPhotoCache.putAndAcquire(args.uri, photo);
+                            args.photo = new BitmapDrawable(
+                                    args.context.getResources(), photo.full);
+                            args.photoIcon = photo.icon;
 
                             Log.d(ContactsAsyncHelper.this, "Loading image: " + msg.arg1 +
                                     " token: " + msg.what + " image URI: " + args.uri);
@@ -211,6 +230,10 @@ public class ContactsAsyncHelper {
                                     " token: " + msg.what + " image URI: " + args.uri +
                                     ", using default image.");
                         }
+                    } catch (IOException e) {
+                        Log.e(this, "Error reading photo input stream", e);
+                        args.photo = null;
+                        args.photoIcon = null;
                     } finally {
                         if (inputStream != null) {
                             try {
@@ -232,17 +255,63 @@ public class ContactsAsyncHelper {
         }
 
         /**
-         * Returns a Bitmap object suitable for {@link Notification}'s large icon. This might
-         * return null when the given Drawable isn't BitmapDrawable, or if the system fails to
-         * create a scaled Bitmap for the Drawable.
+         * Decodes the photo into a mutable bitmap, reusing the memory of a photo that has been
+         * dropped from the cache when one is large enough. Only runs on the worker thread, so
+         * the read buffer and decode scratch space are shared between loads.
          */
-        private Bitmap getPhotoIconWhenAppropriate(Context context, Drawable photo) {
-            if (!(photo instanceof BitmapDrawable)) {
+        private Bitmap decodePhoto(InputStream inputStream) throws IOException {
+            final int length = readFully(inputStream);
+
+            final BitmapFactory.Options options = mDecodeOptions;
+            options.inJustDecodeBounds = true;
+            options.inBitmap = null;
+            BitmapFactory.decodeByteArray(mReadBuffer, 0, length, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
                 return null;
             }
+
+            options.inJustDecodeBounds = false;
+            options.inMutable = true;
+            options.inTempStorage = mDecodeStorage;
+            options.inBitmap = sPhotoCache.takeReusable(options.outWidth, options.outHeight,
+                    options.inPreferredConfig);
+            try {
+                return BitmapFactory.decodeByteArray(mReadBuffer, 0, length, options);
+            } catch (IllegalArgumentException e) {
+                // The reusable bitmap was not compatible after all; decode into a new one.
+                Log.d(this, "Unable to reuse bitmap: " + e);
+                options.inBitmap = null;
+                return BitmapFactory.decodeByteArray(mReadBuffer, 0, length, options);
+            } finally {
+                options.inBitmap = null;
+            }
+        }
+
+        /**
+         * Reads the stream into mReadBuffer, growing it as needed, and returns the length.
+         */
+        private int readFully(InputStream inputStream) throws IOException {
+            int length = 0;
+            int read;
+            while ((read = inputStream.read(mReadBuffer, length,
+                    mReadBuffer.length - length)) != -1) {
+                length += read;
+                if (length == mReadBuffer.length) {
+                    final byte[] grown = new byte[mReadBuffer.length * 2];
+                    System.arraycopy(mReadBuffer, 0, grown, 0, length);
+                    mReadBuffer = grown;
+                }
+            }
+            return length;
+        }
+
+        /**
+         * Returns a Bitmap object suitable for {@link Notification}'s large icon. This might
+         * return null if the system fails to create a scaled Bitmap.
+         */
+        private Bitmap getPhotoIconWhenAppropriate(Context context, Bitmap orgBitmap) {
             int iconSize = context.getResources()
                     .getDimensionPixelSize(R.dimen.notification_icon_size);
-            Bitmap orgBitmap = ((BitmapDrawable) photo).getBitmap();
             int orgWidth = orgBitmap.getWidth();
             int orgHeight = orgBitmap.getHeight();
             int longerEdge = orgWidth > orgHeight ? orgWidth : orgHeight;
@@ -311,6 +380,26 @@ public class ContactsAsyncHelper {
         args.uri = personUri;
         args.listener = listener;
 
+        synchronized (ContactsAsyncHelper.class) {
+            if (sPhotoCache == null) {
+                sPhotoCache = new ContactPhotoCache(context.getApplicationContext());
+            }
+        }
+
+        // A photo that is still cached is handed back without touching the worker thread.
+        final ContactPhotoCache.Photo cachedPhoto = sPhotoCache.acquire(personUri);
+        if (cachedPhoto != null) {
+            Log.d("startObjectPhotoAsync", "Photo cache hit: " + args.uri);
+            args.photo = new BitmapDrawable(context.getResources(), cachedPhoto.full);
+            args.photoIcon = cachedPhoto.icon;
+
+            Message reply = sInstance.mResultHandler.obtainMessage(token);
+            reply.arg1 = EVENT_LOAD_IMAGE;
+            reply.obj = args;
+            reply.sendToTarget();
+            return;
+        }
+
         // setup message arguments
         Message msg = sThreadHandler.obtainMessage(token);
         msg.arg1 = EVENT_LOAD_IMAGE;
@@ -323,5 +412,25 @@ public class ContactsAsyncHelper {
         sThreadHandler.sendMessage(msg);
     }
 
+    /**
+     * Keeps the photo delivered for {@code photoUri} in memory for one more holder. Every
+     * photo delivered through {@link OnImageLoadCompleteListener} is already held once.
+     */
+    public static void holdPhoto(Uri photoUri) {
+        if (sPhotoCache != null) {
+            sPhotoCache.pin(photoUri);
+        }
+    }
+
+    /**
+     * Called once a holder no longer displays the photo delivered for {@code photoUri}, so
+     * its memory can be reused for other photos after it leaves the cache.
+     */
+    public static void releasePhoto(Uri photoUri) {
+        if (sPhotoCache != null) {
+            sPhotoCache.release(photoUri);
+        }
+    }
+
 
 }
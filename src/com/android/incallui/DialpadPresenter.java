@@ -18,20 +18,42 @@ package com.android.incallui;
 
 import android.telephony.PhoneNumberUtils;
 
+import com.android.services.telephony.common.Call;
+
 /**
  * Logic for call buttons.
  */
 public class DialpadPresenter extends Presenter<DialpadPresenter.DialpadUi>
         implements InCallPresenter.InCallStateListener {
 
+    private final DtmfSequencer mDtmfSequencer = new DtmfSequencer();
+    // The call that queued tones are played to.
+    private int mActiveCallId = Call.INVALID_CALL_ID;
+
     @Override
     public void onUiReady(DialpadUi ui) {
         super.onUiReady(ui);
+        InCallPresenter.getInstance().addListener(this);
+        onStateChange(InCallPresenter.getInstance().getInCallState(), CallList.getInstance());
     }
 
     @Override
-    public void onStateChange(InCallPresenter.InCallState state, CallList callList) {
+    public void onUiUnready(DialpadUi ui) {
+        super.onUiUnready(ui);
+        InCallPresenter.getInstance().removeListener(this);
+        mDtmfSequencer.cancel();
+        mActiveCallId = Call.INVALID_CALL_ID;
+    }
 
+    @Override
+    public void onStateChange(InCallPresenter.InCallState state, CallList callList) {
+        // Tones still queued were meant for the call that was active when they were pressed.
+        final Call call = callList.getActiveCall();
+        final int callId = call != null ? call.getCallId() : Call.INVALID_CALL_ID;
+        if (callId != mActiveCallId) {
+            mDtmfSequencer.cancel();
+            mActiveCallId = callId;
+        }
     }
 
     /**
@@ -56,10 +78,14 @@ public class DialpadPresenter extends Presenter<DialpadPresenter.DialpadUi>
         if (PhoneNumberUtils.is12Key(c)) {
             Log.d(this, "updating display and sending dtmf tone for '" + c + "'");
 
-            // Append this key to the "digits" widget.
-            getUi().appendDigitsToField(c);
             // Plays the tone through CallCommandService
-            CallCommandClient.getInstance().playDtmfTone(c, timedShortTone);
+            final boolean accepted = timedShortTone
+                    ? mDtmfSequencer.playShortTone(c)
+                    : mDtmfSequencer.startTone(c);
+            if (accepted) {
+                // Append this key to the "digits" widget.
+                getUi().appendDigitsToField(c);
+            }
         } else {
             Log.d(this, "ignoring dtmf request for '" + c + "'");
         }
@@ -70,7 +96,7 @@ public class DialpadPresenter extends Presenter<DialpadPresenter.DialpadUi>
      */
     public void stopTone() {
         Log.d(this, "stopping remote tone");
-        CallCommandClient.getInstance().stopDtmfTone();
+        mDtmfSequencer.stopTone();
     }
 
     public interface DialpadUi extends Ui {
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+
+package com.android.incallui;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+
+/**
+ * Plays DTMF digits through {@link CallCommandClient}, either as tones that last while a key is
+ * held or as timed short tones.
+ * <p>
+ * Short tones are queued and played with fixed spacing so that the far end can tell the digits
+ * apart. They end by themselves, so each digit costs one command instead of a play/stop pair.
+ * Digits pressed while short tones are still queued are appended as short tones too, keeping
+ * their order. The queue is bounded: when it is full, further
+ * digits are refused and the caller is told so. Used on the main thread only.
+ */
+public class DtmfSequencer {
+
+    // Time from the start of one short tone to the start of the next.
+    private static final long SHORT_TONE_SPACING_MS = 150;
+    private static final int MAX_QUEUED_DIGITS = 64;
+
+    private static final int MSG_PLAY_NEXT = 1;
+
+    private final char[] mQueue = new char[MAX_QUEUED_DIGITS];
+    private int mQueueHead;
+    private int mQueueSize;
+    private boolean mHeldTonePlaying;
+    private long mLastShortToneTime;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper(), new Handler.Callback() {
+        @Override
+        public boolean handleMessage(Message msg) {
+            playNext();
+            return true;
+        }
+    });
+
+    /**
+     * Starts a tone that lasts until {@link #stopTone}, for a key that is being held. If
+     * short tones are still queued, the digit is appended to them as a short tone instead.
+     *
+     * @return false if the digit was refused because the queue is full
+     */
+    public boolean startTone(char digit) {
+        if (mQueueSize > 0) {
+            return enqueue(digit);
+        }
+        mHeldTonePlaying = true;
+        CallCommandClient.getInstance().playDtmfTone(digit, false);
+        return true;
+    }
+
+    /**
+     * Stops the tone started by {@link #startTone}, if it is still playing.
+     */
+    public void stopTone() {
+        if (mHeldTonePlaying) {
+            mHeldTonePlaying = false;
+            CallCommandClient.getInstance().stopDtmfTone();
+            scheduleNext();
+        }
+    }
+
+    /**
+     * Queues a single timed short tone.
+     *
+     * @return false if the digit was refused because the queue is full
+     */
+    public boolean playShortTone(char digit) {
+        return enqueue(digit);
+    }
+
+    /**
+     * Drops any queued digits and stops the current tone.
+     */
+    public void cancel() {
+        mQueueSize = 0;
+        mHandler.removeMessages(MSG_PLAY_NEXT);
+        stopTone();
+    }
+
+    private boolean enqueue(char digit) {
+        if (mQueueSize == MAX_QUEUED_DIGITS) {
+            Log.w(this, "DTMF queue full, dropping '" + digit + "'");
+            return false;
+        }
+        mQueue[(mQueueHead + mQueueSize) % MAX_QUEUED_DIGITS] = digit;
+        mQueueSize++;
+        scheduleNext();
+        return true;
+    }
+
+    private void scheduleNext() {
+        if (mQueueSize == 0 || mHeldTonePlaying || mHandler.hasMessages(MSG_PLAY_NEXT)) {
+            return;
+        }
+        final long when = Math.max(SystemClock.uptimeMillis(),
+                mLastShortToneTime + SHORT_TONE_SPACING_MS);
+        mHandler.sendEmptyMessageAtTime(MSG_PLAY_NEXT, when);
+    }
+
+    private void playNext() {
+        if (mQueueSize == 0 || mHeldTonePlaying) {
+            return;
+        }
+        final char digit = mQueue[mQueueHead];
+        mQueueHead = (mQueueHead + 1) % MAX_QUEUED_DIGITS;
+        mQueueSize--;
+
+        mLastShortToneTime = SystemClock.uptimeMillis();
+        CallCommandClient.getInstance().playDtmfTone(digit, true);
+        scheduleNext();
+    }
+}
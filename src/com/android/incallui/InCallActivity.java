@@ -28,6 +28,7 @@ import com.android.services.telephony.common.CallDetails;
 
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.app.FragmentManager;
 import android.app.FragmentTransaction;
 import android.content.BroadcastReceiver;
 import android.content.Context;
@@ -42,6 +43,8 @@ import android.database.ContentObserver;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.provider.Settings;
 import android.telephony.MSimTelephonyManager;
 import android.util.DisplayMetrics;
@@ -66,11 +69,17 @@ public class InCallActivity extends Activity {
 
     private static final int INVALID_RES_ID = -1;
 
+    // How long after the in-call UI resumes to wait before prefetching the fragments that are
+    // added on demand, so that doing so cannot delay the first frames.
+    private static final long FRAGMENT_PREFETCH_DELAY_MS = 1000;
+
     protected CallButtonFragment mCallButtonFragment;
     protected CallCardFragment mCallCardFragment;
     private AnswerFragment mAnswerFragment;
+    // Added the first time they are needed or when the UI is idle; null until then.
     protected DialpadFragment mDialpadFragment;
     protected ConferenceManagerFragment mConferenceManagerFragment;
+    private boolean mFragmentPrefetchScheduled;
     private boolean mIsForegroundActivity;
     protected AlertDialog mDialog;
     private AlertDialog mModifyCallPromptDialog;
@@ -181,6 +190,13 @@ public class InCallActivity extends Activity {
 
         mIsForegroundActivity = true;
         InCallPresenter.getInstance().onUiShowing(true);
+        traceFirstDraw();
+
+        if (!mFragmentPrefetchScheduled) {
+            mFragmentPrefetchScheduled = true;
+            getWindow().getDecorView().postDelayed(mScheduleFragmentPrefetch,
+                    FRAGMENT_PREFETCH_DELAY_MS);
+        }
 
         if (mShowDialpadRequested) {
             mCallButtonFragment.displayDialpad(true);
@@ -198,6 +214,15 @@ public class InCallActivity extends Activity {
         }
     }
 
+    /**
+     * Records the incoming-call-to-first-draw latency when the next frame is drawn, if an
+     * incoming call is waiting to be shown.
+     */
+    void traceFirstDraw() {
+        InCallTrace.endIntervalOnNextDraw(getWindow().getDecorView(),
+                InCallTrace.INCOMING_TO_FIRST_DRAW);
+    }
+
     // onPause is guaranteed to be called when the InCallActivity goes
     // in the background.
     @Override
@@ -210,7 +235,9 @@ public class InCallActivity extends Activity {
 
         mIsForegroundActivity = false;
 
-        mDialpadFragment.onDialerKeyUp(null);
+        if (mDialpadFragment != null) {
+            mDialpadFragment.onDialerKeyUp(null);
+        }
 
         InCallPresenter.getInstance().onUiShowing(false);
 
@@ -227,6 +254,9 @@ public class InCallActivity extends Activity {
     protected void onDestroy() {
         Log.d(this, "onDestroy()...  this = " + this);
 
+        getWindow().getDecorView().removeCallbacks(mScheduleFragmentPrefetch);
+        Looper.myQueue().removeIdleHandler(mPrefetchFragments);
+
         InCallPresenter.getInstance().setActivity(null);
 
         super.onDestroy();
@@ -311,10 +341,10 @@ public class InCallActivity extends Activity {
         // BACK is also used to exit out of any "special modes" of the
         // in-call UI:
 
-        if (mDialpadFragment.isVisible()) {
+        if (isDialpadVisible()) {
             mCallButtonFragment.displayDialpad(false);  // do the "closing" animation
             return;
-        } else if (mConferenceManagerFragment.isVisible()) {
+        } else if (mConferenceManagerFragment != null && mConferenceManagerFragment.isVisible()) {
             mConferenceManagerFragment.setVisible(false);
             mConferenceManagerShown = false;
             updateSystemBarTranslucency();
@@ -335,7 +365,7 @@ public class InCallActivity extends Activity {
     @Override
     public boolean onKeyUp(int keyCode, KeyEvent event) {
         // push input to the dialer.
-        if ((mDialpadFragment.isVisible()) && (mDialpadFragment.onDialerKeyUp(event))){
+        if (isDialpadVisible() && (mDialpadFragment.onDialerKeyUp(event))){
             return true;
         } else if (keyCode == KeyEvent.KEYCODE_CALL) {
             // Always consume CALL to be sure the PhoneWindow won't do anything with it
@@ -407,7 +437,7 @@ public class InCallActivity extends Activity {
         // As soon as the user starts typing valid dialable keys on the
         // keyboard (presumably to type DTMF tones) we start passing the
         // key events to the DTMFDialer's onDialerKeyDown.
-        if (mDialpadFragment.isVisible()) {
+        if (isDialpadVisible()) {
             return mDialpadFragment.onDialerKeyDown(event);
 
             // TODO: If the dialpad isn't currently visible, maybe
@@ -492,19 +522,72 @@ public class InCallActivity extends Activity {
                     .findFragmentById(R.id.answerFragment);
         }
 
+        // The dialpad and conference manager are only present here if they were added
+        // before the activity was recreated.
         if (mDialpadFragment == null) {
             mDialpadFragment = (DialpadFragment) getFragmentManager()
                     .findFragmentById(R.id.dialpadFragment);
-            getFragmentManager().beginTransaction().hide(mDialpadFragment).commit();
         }
 
         if (mConferenceManagerFragment == null) {
             mConferenceManagerFragment = (ConferenceManagerFragment) getFragmentManager()
                     .findFragmentById(R.id.conferenceManagerFragment);
+        }
+    }
+
+    /**
+     * Adds the dialpad fragment, hidden, unless it has been added already.
+     */
+    protected void ensureDialpadFragment() {
+        if (mDialpadFragment == null) {
+            mDialpadFragment = new DialpadFragment();
+            getFragmentManager().beginTransaction()
+                    .add(R.id.dialpadFragment, mDialpadFragment)
+                    .hide(mDialpadFragment)
+                    .commitAllowingStateLoss();
+        }
+    }
+
+    /**
+     * Adds the conference manager fragment, invisible, unless it has been added already.
+     */
+    protected void ensureConferenceManagerFragment() {
+        if (mConferenceManagerFragment == null) {
+            mConferenceManagerFragment = new ConferenceManagerFragment();
+            final FragmentManager fragmentManager = getFragmentManager();
+            fragmentManager.beginTransaction()
+                    .add(R.id.conferenceManagerFragment, mConferenceManagerFragment)
+                    .commitAllowingStateLoss();
+            // The fragment's view is needed right away by setVisible().
+            fragmentManager.executePendingTransactions();
             mConferenceManagerFragment.getView().setVisibility(View.INVISIBLE);
         }
     }
 
+    private final Runnable mScheduleFragmentPrefetch = new Runnable() {
+        @Override
+        public void run() {
+            Looper.myQueue().addIdleHandler(mPrefetchFragments);
+        }
+    };
+
+    /**
+     * Adds the on-demand fragments once the UI is idle, so that opening them later is fast.
+     */
+    private final MessageQueue.IdleHandler mPrefetchFragments = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            if (mIsForegroundActivity && !isFinishing()) {
+                ensureDialpadFragment();
+                final Call call = CallList.getInstance().getActiveOrBackgroundCall();
+                if (call != null && call.isConferenceCall()) {
+                    ensureConferenceManagerFragment();
+                }
+            }
+            return false;
+        }
+    };
+
     protected void showSmartCover(boolean show) {
         DisplayMetrics metrics = getResources().getDisplayMetrics();
         final int windowHeight = mCoverWindowCoords[2] - mCoverWindowCoords[0];
@@ -575,35 +658,42 @@ public class InCallActivity extends Activity {
     }
 
     public void displayDialpad(boolean showDialpad) {
-        final FragmentTransaction ft = getFragmentManager().beginTransaction();
         if (showDialpad) {
-            ft.setCustomAnimations(R.anim.incall_dialpad_slide_in, 0);
-            ft.show(mDialpadFragment);
-        } else {
-            ft.setCustomAnimations(0, R.anim.incall_dialpad_slide_out);
-            ft.hide(mDialpadFragment);
+            ensureDialpadFragment();
+        }
+        if (mDialpadFragment != null) {
+            final FragmentTransaction ft = getFragmentManager().beginTransaction();
+            if (showDialpad) {
+                ft.setCustomAnimations(R.anim.incall_dialpad_slide_in, 0);
+                ft.show(mDialpadFragment);
+            } else {
+                ft.setCustomAnimations(0, R.anim.incall_dialpad_slide_out);
+                ft.hide(mDialpadFragment);
+            }
+            ft.commitAllowingStateLoss();
         }
-        ft.commitAllowingStateLoss();
 
         InCallPresenter.getInstance().getProximitySensor().onDialpadVisible(showDialpad);
     }
 
     public boolean isDialpadVisible() {
-        return mDialpadFragment.isVisible();
+        return mDialpadFragment != null && mDialpadFragment.isVisible();
     }
 
     public void displayManageConferencePanel(boolean showPanel) {
         if (showPanel) {
+            ensureConferenceManagerFragment();
             mConferenceManagerFragment.setVisible(true);
             mConferenceManagerShown = true;
             updateSystemBarTranslucency();
-        } else {
+        } else if (mConferenceManagerFragment != null) {
             mConferenceManagerFragment.setVisible(false);
         }
     }
 
     public void onManageConferenceDoneClicked() {
-        if (mConferenceManagerShown && !mConferenceManagerFragment.isVisible()) {
+        if (mConferenceManagerShown && mConferenceManagerFragment != null
+                && !mConferenceManagerFragment.isVisible()) {
             mConferenceManagerShown = false;
             updateSystemBarTranslucency();
         }
@@ -56,11 +56,23 @@ public class InCallApp extends Application {
 
     @Override
     public void onCreate() {
+        InCallUiWarmer.getInstance(this).warmUp();
     }
 
     @Override
     public void onConfigurationChanged(Configuration newConfig) {
         super.onConfigurationChanged(newConfig);
+
+        // Layouts and drawables may differ for the new configuration.
+        final InCallUiWarmer warmer = InCallUiWarmer.getInstance(this);
+        warmer.release();
+        warmer.warmUp();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        InCallUiWarmer.getInstance(this).onTrimMemory(level);
     }
 
     /**
@@ -34,12 +34,7 @@ import com.android.incallui.service.NonIntrusiveService;
 import com.android.services.telephony.common.Call;
 import com.android.services.telephony.common.Call.Capabilities;
 import com.android.services.telephony.common.CallDetails;
-import com.google.android.collect.Sets;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
-
-import java.util.ArrayList;
-import java.util.Set;
 
 /**
  * Takes updates from the CallList and notifies the InCallActivity (UI)
@@ -54,8 +49,10 @@ public class InCallPresenter implements CallList.Listener {
 
     private static InCallPresenter sInCallPresenter;
 
-    private final Set<InCallStateListener>        mListeners             = Sets.newHashSet();
-    private final ArrayList<IncomingCallListener> mIncomingCallListeners = Lists.newArrayList();
+    private final ListenerList<InCallStateListener> mListeners =
+            new ListenerList<InCallStateListener>();
+    private final ListenerList<IncomingCallListener> mIncomingCallListeners =
+            new ListenerList<IncomingCallListener>();
 
     private AudioModeProvider mAudioModeProvider;
     private StatusBarNotifier mStatusBarNotifier;
@@ -370,7 +367,9 @@ public class InCallPresenter implements CallList.Listener {
         mInCallState = newState;
 
         // notify listeners of new state
-        for (InCallStateListener listener : mListeners) {
+        final Object[] listeners = mListeners.array();
+        for (int i = 0; i < listeners.length; i++) {
+            final InCallStateListener listener = (InCallStateListener) listeners[i];
             Log.d(this, "Notify " + listener + " of state " + mInCallState.toString());
             listener.onStateChange(mInCallState, callList);
         }
@@ -419,8 +418,14 @@ public class InCallPresenter implements CallList.Listener {
             }
         }
 
-        for (IncomingCallListener listener : mIncomingCallListeners) {
-            listener.onIncomingCall(mInCallState, call);
+        final Object[] listeners = mIncomingCallListeners.array();
+        for (int i = 0; i < listeners.length; i++) {
+            ((IncomingCallListener) listeners[i]).onIncomingCall(mInCallState, call);
+        }
+
+        if (isShowingInCallUi()) {
+            // The activity is already in front, so it will not resume to show this call.
+            mInCallActivity.traceFirstDraw();
         }
 
         if (MSimTelephonyManager.getDefault().getMultiSimConfiguration()
@@ -569,6 +574,9 @@ public class InCallPresenter implements CallList.Listener {
             mProximitySensor.onInCallShowing(showing);
         }
 
+        // Nothing needs periodic UI updates while the UI is not visible.
+        TickScheduler.getInstance().setSuspended(!showing);
+
         if (showing) {
             mIsActivityPreviouslyStarted = true;
         }
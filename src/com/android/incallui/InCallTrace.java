@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.os.SystemClock;
+import android.os.Trace;
+import android.text.format.DateFormat;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import com.google.android.collect.Maps;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Low-overhead instrumentation for the in-call hot paths. Trace sections show up in systrace;
+ * measured latencies go into a fixed-size ring buffer, without allocating or building strings,
+ * and are printed by {@code adb shell dumpsys activity service
+ * com.android.incallui/.CallHandlerService}. Safe to use from any thread.
+ */
+/* package */ final class InCallTrace {
+
+    // Measurement names. Commands sent to the phone process are recorded under their own name.
+    static final String INCOMING_TO_FIRST_DRAW = "incoming_to_first_draw";
+    static final String CONTACT_LOOKUP = "contact_lookup";
+    static final String PHOTO_DECODE = "photo_decode";
+    static final String CONFERENCE_LOOKUP = "conference_lookup";
+
+    private static final int RING_SIZE = 256;
+
+    private static final String[] sNames = new String[RING_SIZE];
+    private static final long[] sTimes = new long[RING_SIZE];
+    private static final long[] sValues = new long[RING_SIZE];
+    // Total number of records ever made; the next slot is sCount % RING_SIZE.
+    private static int sCount;
+
+    // Start times of intervals that began on one code path and end on another.
+    private static final HashMap<String, Long> sIntervalStarts = Maps.newHashMap();
+
+    private InCallTrace() {
+    }
+
+    /**
+     * Begins a systrace section. Must be ended on the same thread.
+     */
+    static void beginSection(String name) {
+        Trace.beginSection(name);
+    }
+
+    static void endSection() {
+        Trace.endSection();
+    }
+
+    /**
+     * Records one measurement, typically a latency in milliseconds.
+     */
+    static void record(String name, long value) {
+        final long now = System.currentTimeMillis();
+        synchronized (sNames) {
+            final int slot = sCount % RING_SIZE;
+            sNames[slot] = name;
+            sTimes[slot] = now;
+            sValues[slot] = value;
+            sCount++;
+        }
+    }
+
+    /**
+     * Starts an interval that is finished by {@link #endInterval}, replacing any interval of
+     * the same name that was not finished.
+     */
+    static void beginInterval(String name) {
+        synchronized (sIntervalStarts) {
+            sIntervalStarts.put(name, SystemClock.uptimeMillis());
+        }
+    }
+
+    /**
+     * Records the time since the matching {@link #beginInterval}, if one is pending.
+     */
+    static void endInterval(String name) {
+        final Long start;
+        synchronized (sIntervalStarts) {
+            start = sIntervalStarts.remove(name);
+        }
+        if (start != null) {
+            record(name, SystemClock.uptimeMillis() - start);
+        }
+    }
+
+    static boolean isIntervalPending(String name) {
+        synchronized (sIntervalStarts) {
+            return sIntervalStarts.containsKey(name);
+        }
+    }
+
+    /**
+     * Ends the pending interval just before the view next draws. Does nothing if no interval
+     * of that name is pending.
+     */
+    static void endIntervalOnNextDraw(View view, final String name) {
+        if (!isIntervalPending(name)) {
+            return;
+        }
+        final ViewTreeObserver observer = view.getViewTreeObserver();
+        observer.addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                if (observer.isAlive()) {
+                    observer.removeOnPreDrawListener(this);
+                }
+                endInterval(name);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Prints a summary per name followed by the buffered records, oldest first.
+     */
+    static void dump(PrintWriter pw) {
+        final int count;
+        final String[] names = new String[RING_SIZE];
+        final long[] times = new long[RING_SIZE];
+        final long[] values = new long[RING_SIZE];
+        synchronized (sNames) {
+            count = sCount;
+            System.arraycopy(sNames, 0, names, 0, RING_SIZE);
+            System.arraycopy(sTimes, 0, times, 0, RING_SIZE);
+            System.arraycopy(sValues, 0, values, 0, RING_SIZE);
+        }
+
+        final int buffered = Math.min(count, RING_SIZE);
+        final int first = count - buffered;
+
+        // count, sum, max per name
+        final HashMap<String, long[]> summary = Maps.newHashMap();
+        for (int i = first; i < count; i++) {
+            final int slot = i % RING_SIZE;
+            long[] stats = summary.get(names[slot]);
+            if (stats == null) {
+                stats = new long[3];
+                summary.put(names[slot], stats);
+            }
+            stats[0]++;
+            stats[1] += values[slot];
+            stats[2] = Math.max(stats[2], values[slot]);
+        }
+
+        pw.println("Trace summary of last " + buffered + " of " + count
+                + " records (count, avg, max):");
+        for (Map.Entry<String, long[]> entry : summary.entrySet()) {
+            final long[] stats = entry.getValue();
+            pw.println("  " + entry.getKey() + ": " + stats[0] + ", " + (stats[1] / stats[0])
+                    + ", " + stats[2]);
+        }
+
+        pw.println("Trace records:");
+        for (int i = first; i < count; i++) {
+            final int slot = i % RING_SIZE;
+            pw.println("  " + DateFormat.format("MM-dd kk:mm:ss", times[slot]) + " "
+                    + names[slot] + "=" + values[slot]);
+        }
+    }
+}
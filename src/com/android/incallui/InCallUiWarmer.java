@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.view.ContextThemeWrapper;
+import android.view.LayoutInflater;
+import android.view.View;
+
+import com.google.android.collect.Lists;
+
+import java.util.ArrayList;
+
+/**
+ * Warms up the in-call UI so that InCallActivity comes up quickly for an incoming call.
+ * <p>
+ * The fragment layouts are inflated once on a background thread with the in-call theme. This
+ * loads the view classes, parses the layout XML and decodes every drawable they use. The
+ * resulting views are never shown; they are kept so that the decoded drawables stay in the
+ * framework's drawable cache, and the activity's own inflation gets cache hits instead of
+ * decoding bitmaps on the main thread. The views are dropped when the system asks us to trim
+ * memory, and nothing is kept on low-RAM devices.
+ */
+/* package */ class InCallUiWarmer {
+
+    private static final int[] LAYOUTS = {
+        R.layout.call_card,
+        R.layout.call_button_fragment,
+        R.layout.answer_fragment,
+        R.layout.dtmf_twelve_key_dialer_view,
+    };
+
+    private static InCallUiWarmer sInstance;
+
+    private final Context mContext;
+    private final boolean mEnabled;
+
+    // Views inflated by the last warm up. Guarded by this.
+    private final ArrayList<View> mWarmViews = Lists.newArrayList();
+    // True from the time a warm up is queued until it is released. Guarded by this.
+    private boolean mWarm;
+
+    public static synchronized InCallUiWarmer getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new InCallUiWarmer(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private InCallUiWarmer(Context context) {
+        mContext = context;
+        final ActivityManager am =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        mEnabled = !am.isLowRamDevice();
+    }
+
+    /**
+     * Starts warming up in the background unless the UI is already warm.
+     */
+    public synchronized void warmUp() {
+        if (!mEnabled || mWarm) {
+            return;
+        }
+        mWarm = true;
+
+        // Some views create Handlers when constructed, so inflate on a thread with a Looper.
+        final HandlerThread thread = new HandlerThread("InCallUiWarmer",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        new Handler(thread.getLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                inflateLayouts();
+                thread.quitSafely();
+            }
+        });
+    }
+
+    /**
+     * Drops the warmed up views, e.g. under memory pressure or after a configuration change
+     * made them stale.
+     */
+    public synchronized void release() {
+        mWarmViews.clear();
+        mWarm = false;
+    }
+
+    /**
+     * Releases the warmed up views when the process is asked to give back memory.
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            Log.d(this, "Releasing warm UI, trim level ", level);
+            release();
+        }
+    }
+
+    private void inflateLayouts() {
+        final long start = SystemClock.uptimeMillis();
+        final LayoutInflater inflater = LayoutInflater.from(
+                new ContextThemeWrapper(mContext, R.style.Theme_InCallScreen));
+        final ArrayList<View> views = Lists.newArrayList();
+        for (int layout : LAYOUTS) {
+            try {
+                views.add(inflater.inflate(layout, null, false));
+            } catch (RuntimeException e) {
+                // Warming up is best effort; the activity will inflate the layout itself.
+                Log.e(this, "Unable to warm up layout " + layout, e);
+            }
+        }
+
+        synchronized (this) {
+            if (mWarm) {
+                mWarmViews.clear();
+                mWarmViews.addAll(views);
+            }
+        }
+        Log.d(this, "Warmed up in-call UI in ms: ", SystemClock.uptimeMillis() - start);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import java.util.Arrays;
+
+/**
+ * Copy-on-write set of listeners. Adding or removing a listener replaces the backing array, so
+ * dispatch walks an immutable snapshot without allocating an iterator, and listeners may add or
+ * remove themselves (or others) from inside a callback. Changes made during a dispatch take
+ * effect from the next one.
+ * <p>
+ * Typical dispatch:
+ * <pre>
+ *     final Object[] listeners = mListeners.array();
+ *     for (int i = 0; i < listeners.length; i++) {
+ *         ((Listener) listeners[i]).onSomething();
+ *     }
+ * </pre>
+ */
+/* package */ final class ListenerList<T> {
+
+    private static final Object[] EMPTY = new Object[0];
+
+    private volatile Object[] mListeners = EMPTY;
+
+    /**
+     * Adds the listener unless it is already present.
+     *
+     * @return true if the listener was added.
+     */
+    public synchronized boolean add(T listener) {
+        final Object[] current = mListeners;
+        if (indexOf(current, listener) >= 0) {
+            return false;
+        }
+        final Object[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = listener;
+        mListeners = updated;
+        return true;
+    }
+
+    /**
+     * Removes the listener if present.
+     *
+     * @return true if the listener was removed.
+     */
+    public synchronized boolean remove(T listener) {
+        final Object[] current = mListeners;
+        final int index = indexOf(current, listener);
+        if (index < 0) {
+            return false;
+        }
+        if (current.length == 1) {
+            mListeners = EMPTY;
+            return true;
+        }
+        final Object[] updated = new Object[current.length - 1];
+        System.arraycopy(current, 0, updated, 0, index);
+        System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+        mListeners = updated;
+        return true;
+    }
+
+    public synchronized void clear() {
+        mListeners = EMPTY;
+    }
+
+    public boolean contains(T listener) {
+        return indexOf(mListeners, listener) >= 0;
+    }
+
+    public boolean isEmpty() {
+        return mListeners.length == 0;
+    }
+
+    /**
+     * Returns the current listeners. The array is never modified and must not be modified by
+     * the caller; every element is a {@code T}.
+     */
+    public Object[] array() {
+        return mListeners;
+    }
+
+    private static int indexOf(Object[] listeners, Object listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
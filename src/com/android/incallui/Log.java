@@ -24,8 +24,10 @@ public class Log {
     // Generic tag for all In Call logging
     private static final String TAG = "InCall";
 
-    public static final boolean DEBUG = true;
-    public static final boolean VERBOSE = true;
+    // Read once at process start; enable with "adb shell setprop log.tag.InCall VERBOSE".
+    public static final boolean DEBUG = android.util.Log.isLoggable(TAG, android.util.Log.DEBUG);
+    public static final boolean VERBOSE =
+            android.util.Log.isLoggable(TAG, android.util.Log.VERBOSE);
     public static final String TAG_DELIMETER = " - ";
 
     public static void d(String tag, String msg) {
@@ -34,6 +36,16 @@ public class Log {
         }
     }
 
+    /**
+     * Logs {@code msg} followed by {@code arg}. The message is only built when debug logging is
+     * enabled, so hot paths should pass values through here instead of concatenating.
+     */
+    public static void d(String tag, String msg, Object arg) {
+        if (DEBUG) {
+            android.util.Log.d(TAG, delimit(tag) + msg + arg);
+        }
+    }
+
     public static void d(Object obj, String msg) {
         if (DEBUG) {
             android.util.Log.d(TAG, getPrefix(obj) + msg);
@@ -54,7 +66,7 @@ public class Log {
 
     public static void v(Object obj, String str1, Object str2) {
         if (VERBOSE) {
-            android.util.Log.d(TAG, getPrefix(obj) + str1 + str2);
+            android.util.Log.v(TAG, getPrefix(obj) + str1 + str2);
         }
     }
 
@@ -53,7 +53,7 @@ public class MSimAnswerPresenter extends Presenter<MSimAnswerPresenter.AnswerUi>
         }
 
         // Listen for incoming calls.
-        calls.addListener(this);
+        calls.addListener(this, CallList.LISTEN_INCOMING);
         CallList.getInstance().addActiveSubChangeListener(this);
     }
 
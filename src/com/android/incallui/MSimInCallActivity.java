@@ -112,16 +112,16 @@ public class MSimInCallActivity extends InCallActivity {
                     .findFragmentById(R.id.answerFragment);
         }
 
+        // The dialpad and conference manager are only present here if they were added
+        // before the activity was recreated.
         if (mDialpadFragment == null) {
             mDialpadFragment = (DialpadFragment) getFragmentManager()
                     .findFragmentById(R.id.dialpadFragment);
-            mDialpadFragment.getView().setVisibility(View.INVISIBLE);
         }
 
         if (mConferenceManagerFragment == null) {
             mConferenceManagerFragment = (ConferenceManagerFragment) getFragmentManager()
                     .findFragmentById(R.id.conferenceManagerFragment);
-            mConferenceManagerFragment.getView().setVisibility(View.INVISIBLE);
         }
     }
 
@@ -32,7 +32,10 @@ import android.content.pm.ActivityInfo;
 import android.graphics.SurfaceTexture;
 import android.os.AsyncResult;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.Message;
+import android.os.Process;
 import android.os.Registrant;
 import android.os.RegistrantList;
 import android.util.Log;
@@ -63,16 +66,19 @@ public class MediaHandler extends Handler {
     private static native void nativeHandleRawFrame(byte[] frame);
     private static native int nativeSetSurface(SurfaceTexture st);
     private static native void nativeSetDeviceOrientation(int orientation);
-    private static native short nativeGetNegotiatedFPS();
-    private static native int nativeGetNegotiatedHeight();
-    private static native int nativeGetNegotiatedWidth();
-    private static native int nativeGetUIOrientationMode();
-    private static native int nativeGetPeerHeight();
-    private static native int nativeGetPeerWidth();
+    private static native void nativeGetMediaParams(int[] params);
     private static native void nativeRegisterForMediaEvents(MediaHandler instance);
 
     public static final int MEDIA_EVENT = 0;
 
+    // Messages to mMainHandler, which runs the listener callbacks on the UI thread
+    private static final int NOTIFY_PARAM_READY = 0;
+    private static final int NOTIFY_DISPLAY_MODE = 1;
+    private static final int NOTIFY_START_READY = 2;
+    private static final int NOTIFY_PEER_RESOLUTION_CHANGE = 3;
+    private static final int NOTIFY_PLAYER_STATE_CHANGED = 4;
+    private static final int NOTIFY_STOP_READY = 5;
+
     //Following values are from the IMS VT API documentation
     public static final int PARAM_READY_EVT = 1;
     public static final int START_READY_EVT = 2;
@@ -89,19 +95,59 @@ public class MediaHandler extends Handler {
     private static final int LANDSCAPE_MODE = 1;
     private static final int PORTRAIT_MODE = 2;
     private static final int CVO_MODE = 3;
+
+    // Layout of the array filled by nativeGetMediaParams, must match videophone_ims_jni.cpp
+    private static final int PARAM_NEGOTIATED_WIDTH = 0;
+    private static final int PARAM_NEGOTIATED_HEIGHT = 1;
+    private static final int PARAM_NEGOTIATED_FPS = 2;
+    private static final int PARAM_UI_ORIENTATION_MODE = 3;
+    private static final int PARAM_PEER_WIDTH = 4;
+    private static final int PARAM_PEER_HEIGHT = 5;
+    private static final int PARAM_COUNT = 6;
+
+    /**
+     * Immutable set of negotiated and peer video parameters. A new instance is published
+     * whenever the media module reports a change, so readers on any thread get a consistent
+     * set of values without locking.
+     */
+    public static final class MediaParams {
+        public final int negotiatedWidth;
+        public final int negotiatedHeight;
+        public final short negotiatedFps;
+        public final int uiOrientationMode;
+        public final int peerWidth;
+        public final int peerHeight;
+
+        private MediaParams(int negotiatedWidth, int negotiatedHeight, short negotiatedFps,
+                int uiOrientationMode, int peerWidth, int peerHeight) {
+            this.negotiatedWidth = negotiatedWidth;
+            this.negotiatedHeight = negotiatedHeight;
+            this.negotiatedFps = negotiatedFps;
+            this.uiOrientationMode = uiOrientationMode;
+            this.peerWidth = peerWidth;
+            this.peerHeight = peerHeight;
+        }
+
+        @Override
+        public String toString() {
+            return "MediaParams{negotiated=" + negotiatedWidth + "x" + negotiatedHeight
+                    + "@" + negotiatedFps + " uiOrientationMode=" + uiOrientationMode
+                    + " peer=" + peerWidth + "x" + peerHeight + "}";
+        }
+    }
+
     /*
-     * Initializing default negotiated parameters to a working set of valuesso
+     * Initializing default negotiated parameters to a working set of values so
      * that the application does not crash in case we do not get the Param ready
      * event
      */
-    private static int mNegotiatedHeight = 240;
-    private static int mNegotiatedWidth = 320;
-    private static int mUIOrientationMode = PORTRAIT_MODE;
-    private static short mNegotiatedFps = 20;
-
-    private int mPeerHeight = DEFAULT_HEIGHT;
-    private int mPeerWidth = DEFAULT_WIDTH;
-    private IMediaEventListener mMediaEventListener;
+    private static volatile MediaParams sMediaParams = new MediaParams(320, 240, (short) 20,
+            PORTRAIT_MODE, DEFAULT_WIDTH, DEFAULT_HEIGHT);
+
+    // Only used on the thread that handles media events.
+    private final int[] mParamsBuffer = new int[PARAM_COUNT];
+    private volatile IMediaEventListener mMediaEventListener;
+    private final Handler mMainHandler;
     public RegistrantList mCvoModeOnRegistrant = new RegistrantList();
 
     // Use a singleton
@@ -121,6 +167,26 @@ public class MediaHandler extends Handler {
      * Private constructor for MediaHandler
      */
     private MediaHandler() {
+        // Media events and the parameter queries they trigger are handled on a dedicated
+        // thread; only the resulting listener callbacks are posted to the UI thread.
+        super(startEventThread());
+        mMainHandler = new Handler(Looper.getMainLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == NOTIFY_DISPLAY_MODE) {
+                    // Registrants are notified from the UI thread, like the listener.
+                    processUIOrientationMode();
+                }
+                notifyListener(msg);
+            }
+        };
+    }
+
+    private static Looper startEventThread() {
+        final HandlerThread thread = new HandlerThread("MediaEvents",
+                Process.THREAD_PRIORITY_DISPLAY);
+        thread.start();
+        return thread.getLooper();
     }
 
     public interface IMediaEventListener {
@@ -158,6 +224,8 @@ public class MediaHandler extends Handler {
                 case DPL_INIT_MULTIPLE:
                     mInitCalledFlag = true;
                     Log.e(TAG, "Dpl init is called multiple times");
+                    // The library may have been initialized before this process registered.
+                    registerForMediaEvents(this);
                     error = DPL_INIT_SUCCESSFUL;
                     break;
             }
@@ -214,48 +282,60 @@ public class MediaHandler extends Handler {
         nativeSetSurface(mSurface);
     }
 
+    /**
+     * Get the latest negotiated and peer parameters as one consistent set
+     */
+    public static MediaParams getMediaParams() {
+        return sMediaParams;
+    }
+
     /**
      * Get Negotiated Height
      */
-    public synchronized static int getNegotiatedHeight() {
-        Log.d(TAG, "Negotiated Height = " + mNegotiatedHeight);
-        return mNegotiatedHeight;
+    public static int getNegotiatedHeight() {
+        final int height = sMediaParams.negotiatedHeight;
+        Log.d(TAG, "Negotiated Height = " + height);
+        return height;
     }
 
     /**
      * Get Negotiated Width
      */
-    public synchronized static int getNegotiatedWidth() {
-        Log.d(TAG, "Negotiated Width = " + mNegotiatedWidth);
-        return mNegotiatedWidth;
+    public static int getNegotiatedWidth() {
+        final int width = sMediaParams.negotiatedWidth;
+        Log.d(TAG, "Negotiated Width = " + width);
+        return width;
     }
 
     /**
-     * Get Negotiated Width
+     * Get UI Orientation Mode
      */
     public int getUIOrientationMode() {
-        Log.d(TAG, "UI Orientation Mode = " + mUIOrientationMode);
-        return mUIOrientationMode;
+        final int mode = sMediaParams.uiOrientationMode;
+        Log.d(TAG, "UI Orientation Mode = " + mode);
+        return mode;
     }
 
-    public synchronized static short getNegotiatedFps() {
-        return mNegotiatedFps;
+    public static short getNegotiatedFps() {
+        return sMediaParams.negotiatedFps;
     }
 
     /**
      * Get Peer Height
      */
     public int getPeerHeight() {
-        Log.d(TAG, "Peer Height = " + mPeerHeight);
-        return mPeerHeight;
+        final int height = sMediaParams.peerHeight;
+        Log.d(TAG, "Peer Height = " + height);
+        return height;
     }
 
     /**
      * Get Peer Width
      */
     public int getPeerWidth() {
-        Log.d(TAG, "Peer Width = " + mPeerWidth);
-        return mPeerWidth;
+        final int width = sMediaParams.peerWidth;
+        Log.d(TAG, "Peer Width = " + width);
+        return width;
     }
 
     /**
@@ -271,52 +351,44 @@ public class MediaHandler extends Handler {
         mMediaEventListener = listener;
     }
 
+    /**
+     * Runs on the media event thread. Updates the cached parameters and forwards the event
+     * to the UI thread.
+     */
     private void doOnMediaEvent(int eventId) {
         switch (eventId) {
             case PARAM_READY_EVT:
                 Log.d(TAG, "Received PARAM_READY_EVT. Updating negotiated values");
-                if (updatePreviewParams() && mMediaEventListener != null) {
-                    mMediaEventListener.onParamReadyEvent();
+                if (updatePreviewParams()) {
+                    mMainHandler.sendEmptyMessage(NOTIFY_PARAM_READY);
                 }
                 break;
             case PEER_RESOLUTION_CHANGE_EVT:
-                mPeerHeight = nativeGetPeerHeight();
-                mPeerWidth = nativeGetPeerWidth();
-                Log.d(TAG, "Received PEER_RESOLUTION_CHANGE_EVENT. Updating peer values"
-                        + " mPeerHeight=" + mPeerHeight + " mPeerWidth=" + mPeerWidth);
-                if (mMediaEventListener != null) {
-                    mMediaEventListener.onPeerResolutionChangeEvent();
-                }
+                updatePeerParams();
+                Log.d(TAG, "Received PEER_RESOLUTION_CHANGE_EVENT. Updating peer values "
+                        + sMediaParams);
+                mMainHandler.sendEmptyMessage(NOTIFY_PEER_RESOLUTION_CHANGE);
                 break;
             case START_READY_EVT:
                 Log.d(TAG, "Received START_READY_EVT. Camera recording can be started");
-                if (mMediaEventListener != null) {
-                    mMediaEventListener.onStartReadyEvent();
-                }
+                mMainHandler.sendEmptyMessage(NOTIFY_START_READY);
                 break;
 
             case STOP_READY_EVT:
                 Log.d(TAG, "Received STOP_READY_EVT");
-                if (mMediaEventListener != null) {
-                    mMediaEventListener.onStopReadyEvent();
-                }
+                mMainHandler.sendEmptyMessage(NOTIFY_STOP_READY);
                 break;
             case DISPLAY_MODE_EVT:
-                mUIOrientationMode = nativeGetUIOrientationMode();
-                processUIOrientationMode();
-                if (mMediaEventListener != null) {
-                    mMediaEventListener.onDisplayModeEvent();
-                }
+                updateUIOrientationMode();
+                mMainHandler.sendEmptyMessage(NOTIFY_DISPLAY_MODE);
                 break;
             case PLAYER_START_EVENT:
-                if (mMediaEventListener != null) {
-                    mMediaEventListener.onPlayerStateChanged(PLAYER_STATE_STARTED);
-                }
+                mMainHandler.obtainMessage(NOTIFY_PLAYER_STATE_CHANGED,
+                        PLAYER_STATE_STARTED, 0).sendToTarget();
                 break;
             case PLAYER_STOP_EVENT:
-                if (mMediaEventListener != null) {
-                    mMediaEventListener.onPlayerStateChanged(PLAYER_STATE_STOPPED);
-                }
+                mMainHandler.obtainMessage(NOTIFY_PLAYER_STATE_CHANGED,
+                        PLAYER_STATE_STOPPED, 0).sendToTarget();
                 break;
             default:
                 Log.e(TAG, "Received unknown event id=" + eventId);
@@ -324,7 +396,38 @@ public class MediaHandler extends Handler {
     }
 
     /**
-     * Callback method that is invoked when Media events occur
+     * Runs on the UI thread.
+     */
+    private void notifyListener(Message msg) {
+        final IMediaEventListener listener = mMediaEventListener;
+        if (listener == null) {
+            return;
+        }
+        switch (msg.what) {
+            case NOTIFY_PARAM_READY:
+                listener.onParamReadyEvent();
+                break;
+            case NOTIFY_DISPLAY_MODE:
+                listener.onDisplayModeEvent();
+                break;
+            case NOTIFY_START_READY:
+                listener.onStartReadyEvent();
+                break;
+            case NOTIFY_PEER_RESOLUTION_CHANGE:
+                listener.onPeerResolutionChangeEvent();
+                break;
+            case NOTIFY_PLAYER_STATE_CHANGED:
+                listener.onPlayerStateChanged(msg.arg1);
+                break;
+            case NOTIFY_STOP_READY:
+                listener.onStopReadyEvent();
+                break;
+        }
+    }
+
+    /**
+     * Callback method that is invoked when Media events occur. Called from the native media
+     * event thread.
      */
     public void onMediaEvent(int eventId) {
         Log.d(TAG, "onMediaEvent eventId = " + eventId);
@@ -342,21 +445,46 @@ public class MediaHandler extends Handler {
         }
     }
 
-    private synchronized boolean updatePreviewParams() {
-        int h = nativeGetNegotiatedHeight();
-        int w = nativeGetNegotiatedWidth();
-        short fps = nativeGetNegotiatedFPS();
-        if (mNegotiatedHeight != h
-                || mNegotiatedWidth != w
-                || mNegotiatedFps != fps) {
-            mNegotiatedHeight = h;
-            mNegotiatedWidth = w;
-            mNegotiatedFps = fps;
+    /**
+     * Reads all parameters from the media module with a single native call. Each event only
+     * publishes the values it reports on, so the other values keep their previous state.
+     */
+    private int[] queryMediaParams() {
+        nativeGetMediaParams(mParamsBuffer);
+        return mParamsBuffer;
+    }
+
+    private boolean updatePreviewParams() {
+        final int[] p = queryMediaParams();
+        final MediaParams old = sMediaParams;
+        final int w = p[PARAM_NEGOTIATED_WIDTH];
+        final int h = p[PARAM_NEGOTIATED_HEIGHT];
+        final short fps = (short) p[PARAM_NEGOTIATED_FPS];
+        if (old.negotiatedHeight != h
+                || old.negotiatedWidth != w
+                || old.negotiatedFps != fps) {
+            sMediaParams = new MediaParams(w, h, fps, old.uiOrientationMode, old.peerWidth,
+                    old.peerHeight);
             return true;
         }
         return false;
     }
 
+    private void updatePeerParams() {
+        final int[] p = queryMediaParams();
+        final MediaParams old = sMediaParams;
+        sMediaParams = new MediaParams(old.negotiatedWidth, old.negotiatedHeight,
+                old.negotiatedFps, old.uiOrientationMode, p[PARAM_PEER_WIDTH],
+                p[PARAM_PEER_HEIGHT]);
+    }
+
+    private void updateUIOrientationMode() {
+        final int[] p = queryMediaParams();
+        final MediaParams old = sMediaParams;
+        sMediaParams = new MediaParams(old.negotiatedWidth, old.negotiatedHeight,
+                old.negotiatedFps, p[PARAM_UI_ORIENTATION_MODE], old.peerWidth, old.peerHeight);
+    }
+
     private void processUIOrientationMode() {
         mCvoModeOnRegistrant.notifyRegistrants(new AsyncResult(null,
                 isCvoModeEnabled(), null));
@@ -381,6 +509,6 @@ public class MediaHandler extends Handler {
     }
 
     public boolean isCvoModeEnabled() {
-        return mUIOrientationMode == CVO_MODE;
+        return sMediaParams.uiOrientationMode == CVO_MODE;
     }
 }
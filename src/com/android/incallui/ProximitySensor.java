@@ -75,7 +75,7 @@ public class ProximitySensor implements AccelerometerListener.OrientationListene
                 settingsObserver);
         updateProximitySensorBySetting();
         Log.d(this, "onCreate: mProximityWakeLock: ", mProximityWakeLock);
-        mAudioModeProvider.addListener(this);
+        mAudioModeProvider.addListener(this, AudioModeProvider.LISTEN_AUDIO_MODE);
     }
 
     private void updateProximitySensorBySetting() {
@@ -27,7 +27,8 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.os.Handler;
-import android.os.Message;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.provider.Settings;
 import android.text.TextUtils;
 
@@ -36,6 +37,7 @@ import com.android.incallui.ContactInfoCache.ContactInfoCacheCallback;
 import com.android.incallui.InCallApp.NotificationBroadcastReceiver;
 import com.android.incallui.InCallPresenter.InCallState;
 import com.android.services.telephony.common.Call;
+import com.google.common.base.Objects;
 
 /**
  * This class adds Notifications to the status bar for the in-call experience.
@@ -58,24 +60,26 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
     }
 
     private NotificationTimer mNotificationTimer = new NotificationTimer() {
-        private final Handler mHandler = new Handler(new Handler.Callback() {
-            public boolean handleMessage(Message m) {
+        private final TickScheduler.TickListener mListener = new TickScheduler.TickListener() {
+            @Override
+            public void onTick(long uptimeMillis) {
                 fire();
-                return true;
             }
-        });
+        };
         private State mState = State.CLEAR;
         public State getState() { return mState; }
         public void schedule() {
             if (mState == State.CLEAR) {
                 Log.d(this, "updateInCallNotification: timer scheduled");
-                mHandler.sendEmptyMessageDelayed(0, IN_CALL_TIMEOUT);
+                // Runs while hidden: it exists to show the notification when there is no UI.
+                TickScheduler.getInstance().subscribe(mListener, IN_CALL_TIMEOUT,
+                        TickScheduler.FLAG_ONE_SHOT | TickScheduler.FLAG_RUN_WHILE_HIDDEN);
                 mState = State.SCHEDULED;
             }
         }
         public void clear() {
             Log.d(this, "updateInCallNotification: timer cleared");
-            mHandler.removeMessages(0);
+            TickScheduler.getInstance().unsubscribe(mListener);
             mState = State.CLEAR;
         }
         private void fire() {
@@ -91,13 +95,32 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
     private final ContactInfoCache mContactInfoCache;
     private final NotificationManager mNotificationManager;
     private boolean mIsShowingNotification = false;
-    private int mCallState = Call.State.INVALID;
-    private int mSavedIcon = 0;
-    private int mSavedContent = 0;
-    private Bitmap mSavedLargeIcon;
-    private String mSavedContentTitle;
     private boolean mIsCallUiInBackground;
 
+    // Everything visible in the notification we last sent, for skipping identical updates.
+    private NotificationModel mLastModel;
+
+    // Notifications are built and posted on this thread, in the order they were requested.
+    private static Handler sWorkerHandler;
+
+    // Only used on the main thread.
+    private Intent mInCallIntent;
+
+    // Only used on the worker thread.
+    private PendingIntent mLaunchPendingIntent;
+    private PendingIntent mHangUpPendingIntent;
+    private PendingIntent mAnswerPendingIntent;
+    private PendingIntent mDismissPendingIntent;
+    private Bitmap mConferenceIcon;
+    private Bitmap mLargeIconSource;
+    private int mLargeIconGeneration;
+    private Bitmap mScaledLargeIcon;
+
+    // Inputs of the last onStateChange() pass, used to skip passes where nothing changed.
+    private InCallState mLastState;
+    private boolean mLastShowingInCallUi;
+    private long mLastSnapshotVersion = CallListSnapshot.INVALID_VERSION;
+
     public StatusBarNotifier(Context context, ContactInfoCache contactInfoCache) {
         Preconditions.checkNotNull(context);
 
@@ -107,6 +130,18 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
                 (NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
     }
 
+    private static synchronized Handler getWorkerHandler() {
+        if (sWorkerHandler == null) {
+            // Foreground priority: the incoming call notification carries the full screen
+            // intent that brings up the in-call UI, so it must not wait behind other work.
+            final HandlerThread thread = new HandlerThread("StatusBarNotifier",
+                    Process.THREAD_PRIORITY_FOREGROUND);
+            thread.start();
+            sWorkerHandler = new Handler(thread.getLooper());
+        }
+        return sWorkerHandler;
+    }
+
     /**
      * Creates notifications according to the state we receive from {@link InCallPresenter}.
      */
@@ -114,6 +149,19 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
     public void onStateChange(InCallState state, CallList callList) {
         Log.d(this, "onStateChange");
 
+        if (callList != null) {
+            final boolean showingInCallUi = InCallPresenter.getInstance().isShowingInCallUi();
+            final CallListSnapshot snapshot = callList.getSnapshot();
+            if (state == mLastState && showingInCallUi == mLastShowingInCallUi
+                    && snapshot.isUnchangedSince(mLastSnapshotVersion,
+                            CallListSnapshot.CHANGED_ALL)) {
+                return;
+            }
+            mLastState = state;
+            mLastShowingInCallUi = showingInCallUi;
+            mLastSnapshotVersion = snapshot.getVersion();
+        }
+
         updateNotification(state, callList);
     }
 
@@ -178,17 +226,33 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
      */
     public void cancelInCall() {
         Log.d(this, "cancelInCall()...");
-        mNotificationManager.cancel(IN_CALL_NOTIFICATION);
         mIsShowingNotification = false;
+        mLastModel = null;
+        // Go through the worker so the cancel can't overtake a notification queued before it.
+        getWorkerHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                mNotificationManager.cancel(IN_CALL_NOTIFICATION);
+                // Photo bitmaps are recycled for other contacts, so don't keep the scaled one.
+                mLargeIconSource = null;
+                mScaledLargeIcon = null;
+            }
+        });
     }
 
     /* package */ static void clearInCallNotification(Context backupContext) {
         Log.i(StatusBarNotifier.class.getSimpleName(),
                 "Something terrible happened. Clear all InCall notifications");
 
-        NotificationManager notificationManager =
+        final NotificationManager notificationManager =
                 (NotificationManager) backupContext.getSystemService(Context.NOTIFICATION_SERVICE);
-        notificationManager.cancel(IN_CALL_NOTIFICATION);
+        // Go through the worker so the cancel can't overtake a notification queued before it.
+        getWorkerHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                notificationManager.cancel(IN_CALL_NOTIFICATION);
+            }
+        });
     }
 
     /**
@@ -304,77 +368,138 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
             return;
         }
 
-        final int state = call.getState();
-        final boolean isConference = call.isConferenceCall();
-        final int iconResId = getIconToDisplay(call);
-        final Bitmap largeIcon = getLargeIconToDisplay(contactInfo, isConference);
-        final int contentResId = getContentString(call);
-        final String contentTitle = getContentTitle(contactInfo, isConference);
+        final NotificationModel model = buildModel(call, contactInfo, allowFullScreenIntent);
 
         // If we checked and found that nothing is different, dont issue another notification.
-        if (!checkForChangeAndSaveData(iconResId, contentResId, largeIcon, contentTitle, state,
-                allowFullScreenIntent)) {
+        if (!checkForChangeAndSaveData(model)) {
             return;
         }
 
         /*
-         * Nothing more to check...build and send it.
+         * Nothing more to check...build and send it off the main thread.
          */
-        final Notification.Builder builder = getNotificationBuilder();
+        mIsShowingNotification = true;
+        if (mInCallIntent == null) {
+            mInCallIntent = InCallPresenter.getInstance().getInCallIntent(/*showdialpad=*/false);
+        }
+        final Intent inCallIntent = mInCallIntent;
+        getWorkerHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                sendNotification(model, inCallIntent);
+            }
+        });
+    }
 
-        // Set up the main intent to send the user to the in-call screen
-        final PendingIntent inCallPendingIntent = createLaunchPendingIntent();
-        builder.setContentIntent(inCallPendingIntent);
+    /**
+     * Collects everything that is visible in the notification for the given call. Anything that
+     * is expensive to produce is left for {@link #sendNotification} on the worker thread.
+     */
+    private NotificationModel buildModel(Call call, ContactCacheEntry contactInfo,
+            boolean allowFullScreenIntent) {
+        final NotificationModel model = new NotificationModel();
+        final int state = call.getState();
+        final boolean isConference = call.isConferenceCall();
 
-        // Set the intent as a full screen intent as well if requested
-        if (allowFullScreenIntent) {
-            configureFullScreenIntent(builder, inCallPendingIntent, call);
+        model.callState = state;
+        model.iconResId = getIconToDisplay(call);
+        model.contentResId = getContentString(call);
+        if (model.contentResId == R.string.notification_dialing) {
+            model.simNameSubscription = call.getSubscription();
         }
-
-        // set the content
-        String contentText = mContext.getString(contentResId);
-        if (contentResId == R.string.notification_dialing) {
-            int sub = call.getSubscription();
-            String name = Settings.Global.getSimNameForSubscription(mContext, sub,
-                    String.valueOf(sub));
-            contentText +=  "  (" + name + ")";
+        model.contentTitle = getContentTitle(contactInfo, isConference);
+        model.conferenceIcon = isConference;
+        model.largeIconSource = getLargeIconSource(contactInfo);
+        if (model.largeIconSource != null) {
+            model.largeIconGeneration = model.largeIconSource.getGenerationId();
         }
-        builder.setContentText(contentText);
-        builder.setSmallIcon(iconResId);
-        builder.setContentTitle(contentTitle);
-        builder.setLargeIcon(largeIcon);
 
         if (state == Call.State.ACTIVE) {
-            builder.setUsesChronometer(true);
-            builder.setWhen(call.getConnectTime());
-        } else {
-            builder.setUsesChronometer(false);
+            model.usesChronometer = true;
+            model.when = call.getConnectTime();
         }
 
         // Add hang up option for any active calls (active | onhold), outgoing calls (dialing).
         if (state == Call.State.ACTIVE ||
                 state == Call.State.ONHOLD ||
                 Call.State.isDialing(state)) {
-            addHangupAction(builder);
+            model.actions |= NotificationModel.ACTION_HANG_UP;
         }
 
         // Add dismiss and answer button for any incoming call
         if (state == Call.State.INCOMING) {
-            addAnswerAction(builder);
-            addDismissAction(builder);
+            model.actions |= NotificationModel.ACTION_ANSWER | NotificationModel.ACTION_DISMISS;
             if (!allowFullScreenIntent || mIsCallUiInBackground) {
                 // Call UI not active - set statusbar text
-                builder.setTicker(contentTitle);
+                model.ticker = model.contentTitle;
             }
         }
 
+        // Set the intent as a full screen intent as well if requested
+        if (allowFullScreenIntent) {
+            configureFullScreenIntent(model, call);
+        }
+        return model;
+    }
+
+    /**
+     * Builds the notification described by the model and posts it. Runs on the worker thread.
+     */
+    private void sendNotification(NotificationModel model, Intent inCallIntent) {
+        final Notification.Builder builder = getNotificationBuilder();
+
+        // Set up the main intent to send the user to the in-call screen
+        final PendingIntent inCallPendingIntent = getLaunchPendingIntent(inCallIntent);
+        builder.setContentIntent(inCallPendingIntent);
+        if (model.fullScreenIntent) {
+            Log.d(this, "- Setting fullScreenIntent: " + inCallPendingIntent);
+            builder.setFullScreenIntent(inCallPendingIntent, true);
+        }
+
+        // set the content
+        String contentText = mContext.getString(model.contentResId);
+        if (model.simNameSubscription != NotificationModel.NO_SUBSCRIPTION) {
+            int sub = model.simNameSubscription;
+            String name = Settings.Global.getSimNameForSubscription(mContext, sub,
+                    String.valueOf(sub));
+            contentText +=  "  (" + name + ")";
+        }
+        builder.setContentText(contentText);
+        builder.setSmallIcon(model.iconResId);
+        builder.setContentTitle(model.contentTitle);
+        builder.setLargeIcon(getLargeIconToDisplay(model));
+
+        builder.setUsesChronometer(model.usesChronometer);
+        if (model.usesChronometer) {
+            builder.setWhen(model.when);
+        }
+
+        if ((model.actions & NotificationModel.ACTION_HANG_UP) != 0) {
+            addHangupAction(builder);
+        }
+        if ((model.actions & NotificationModel.ACTION_ANSWER) != 0) {
+            addAnswerAction(builder);
+        }
+        if ((model.actions & NotificationModel.ACTION_DISMISS) != 0) {
+            addDismissAction(builder);
+        }
+        if (model.ticker != null) {
+            builder.setTicker(model.ticker);
+        }
+
+        if (model.cancelBeforeNotify) {
+            // Cancel the IN_CALL_NOTIFICATION immediately before
+            // (re)posting it; this seems to force the
+            // NotificationManager to launch the fullScreenIntent.
+            mNotificationManager.cancel(IN_CALL_NOTIFICATION);
+        }
+
         /*
          * Fire off the notification
          */
         Notification notification = builder.build();
         Log.d(this, "Notifying IN_CALL_NOTIFICATION: " + notification);
         mNotificationManager.notify(IN_CALL_NOTIFICATION, notification);
-        mIsShowingNotification = true;
     }
 
     /**
@@ -382,24 +507,13 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
      * are already displaying. If the data is exactly the same, we return false so that
      * we do not issue a new notification for the exact same data.
      */
-    private boolean checkForChangeAndSaveData(int icon, int content, Bitmap largeIcon,
-            String contentTitle, int state, boolean showFullScreenIntent) {
-
-        // The two are different:
-        // if new title is not null, it should be different from saved version OR
-        // if new title is null, the saved version should not be null
-        final boolean contentTitleChanged =
-                (contentTitle != null && !contentTitle.equals(mSavedContentTitle)) ||
-                (contentTitle == null && mSavedContentTitle != null);
-
+    private boolean checkForChangeAndSaveData(NotificationModel model) {
         // any change means we are definitely updating
-        boolean retval = (mSavedIcon != icon) || (mSavedContent != content) ||
-                (mCallState != state) || (mSavedLargeIcon != largeIcon) ||
-                contentTitleChanged;
+        boolean retval = !model.equals(mLastModel);
 
         // A full screen intent means that we have been asked to interrupt an activity,
         // so we definitely want to show it.
-        if (showFullScreenIntent) {
+        if (model.fullScreenIntent) {
             Log.d(this, "Forcing full screen intent");
             retval = true;
         }
@@ -410,11 +524,7 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
             retval = true;
         }
 
-        mSavedIcon = icon;
-        mSavedContent = content;
-        mCallState = state;
-        mSavedLargeIcon = largeIcon;
-        mSavedContentTitle = contentTitle;
+        mLastModel = model;
 
         if (retval) {
             Log.d(this, "Data changed.  Showing notification");
@@ -438,27 +548,44 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
     }
 
     /**
-     * Gets a large icon from the contact info object to display in the notification.
+     * Returns the contact photo to use as the large icon, if there is one.
      */
-    private Bitmap getLargeIconToDisplay(ContactCacheEntry contactInfo, boolean isConference) {
-        Bitmap largeIcon = null;
-        if (isConference) {
-            largeIcon = BitmapFactory.decodeResource(mContext.getResources(),
-                    R.drawable.picture_conference);
-        }
+    private static Bitmap getLargeIconSource(ContactCacheEntry contactInfo) {
         if (contactInfo.photo != null && (contactInfo.photo instanceof BitmapDrawable)) {
-            largeIcon = ((BitmapDrawable) contactInfo.photo).getBitmap();
+            return ((BitmapDrawable) contactInfo.photo).getBitmap();
+        }
+        return null;
+    }
+
+    /**
+     * Gets a large icon scaled for the notification. Runs on the worker thread, and keeps the
+     * last scaled photo so that repeated updates for the same contact don't scale it again.
+     */
+    private Bitmap getLargeIconToDisplay(NotificationModel model) {
+        Bitmap largeIcon = model.largeIconSource;
+        if (largeIcon == null && model.conferenceIcon) {
+            if (mConferenceIcon == null) {
+                mConferenceIcon = BitmapFactory.decodeResource(mContext.getResources(),
+                        R.drawable.picture_conference);
+            }
+            largeIcon = mConferenceIcon;
+        }
+        if (largeIcon == null) {
+            return null;
         }
 
-        if (largeIcon != null) {
+        // Photo bitmaps are reused for other photos, so identity alone doesn't tell them apart.
+        final int generation = largeIcon.getGenerationId();
+        if (largeIcon != mLargeIconSource || generation != mLargeIconGeneration) {
             final int height = (int) mContext.getResources().getDimension(
                     android.R.dimen.notification_large_icon_height);
             final int width = (int) mContext.getResources().getDimension(
                     android.R.dimen.notification_large_icon_width);
-            largeIcon = Bitmap.createScaledBitmap(largeIcon, width, height, false);
+            mScaledLargeIcon = Bitmap.createScaledBitmap(largeIcon, width, height, false);
+            mLargeIconSource = largeIcon;
+            mLargeIconGeneration = generation;
         }
-
-        return largeIcon;
+        return mScaledLargeIcon;
     }
 
     /**
@@ -530,37 +657,44 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
     private void addHangupAction(Notification.Builder builder) {
         Log.i(this, "Will show \"hang-up\" action in the ongoing active call Notification");
 
+        if (mHangUpPendingIntent == null) {
+            mHangUpPendingIntent = createHangUpOngoingCallPendingIntent(mContext);
+        }
         // TODO: use better asset.
         builder.addAction(R.drawable.stat_sys_phone_call_end,
                 mContext.getText(R.string.notification_action_end_call),
-                createHangUpOngoingCallPendingIntent(mContext));
+                mHangUpPendingIntent);
     }
 
     private void addDismissAction(Notification.Builder builder) {
+        if (mDismissPendingIntent == null) {
+            mDismissPendingIntent = createDismissIncomingCallPendingIntent(mContext);
+        }
         builder.addAction(R.drawable.stat_sys_phone_call_end,
                 mContext.getText(R.string.description_target_decline),
-                createDismissIncomingCallPendingIntent(mContext));
+                mDismissPendingIntent);
     }
 
     private void addAnswerAction(Notification.Builder builder) {
+        if (mAnswerPendingIntent == null) {
+            mAnswerPendingIntent = createAnswerIncomingCallPendingIntent(mContext);
+        }
         builder.addAction(R.drawable.stat_sys_phone_call,
                 mContext.getText(R.string.description_target_answer),
-                createAnswerIncomingCallPendingIntent(mContext));
+                mAnswerPendingIntent);
     }
 
     /**
-     * Adds fullscreen intent to the builder.
+     * Decides whether the notification gets a fullscreen intent.
      */
-    private void configureFullScreenIntent(Notification.Builder builder, PendingIntent intent,
-            Call call) {
+    private void configureFullScreenIntent(NotificationModel model, Call call) {
         if (!mIsCallUiInBackground) {
             // Ok, we actually want to launch the incoming call
             // UI at this point (in addition to simply posting a notification
             // to the status bar).  Setting fullScreenIntent will cause
             // the InCallScreen to be launched immediately *unless* the
             // current foreground activity is marked as "immersive".
-            Log.d(this, "- Setting fullScreenIntent: " + intent);
-            builder.setFullScreenIntent(intent, true);
+            model.fullScreenIntent = true;
         } else {
             // We do not want to launch the incoming call UI so go ahead and just
             // show the notification
@@ -603,10 +737,7 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
         if (isCallWaiting) {
             Log.i(this, "updateInCallNotification: call-waiting or dsda incoming call!"
                     + " force relaunch...");
-            // Cancel the IN_CALL_NOTIFICATION immediately before
-            // (re)posting it; this seems to force the
-            // NotificationManager to launch the fullScreenIntent.
-            mNotificationManager.cancel(IN_CALL_NOTIFICATION);
+            model.cancelBeforeNotify = true;
         }
     }
 
@@ -619,10 +750,15 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
 
         return builder;
     }
-    private PendingIntent createLaunchPendingIntent() {
 
-        final Intent intent = InCallPresenter.getInstance().getInCallIntent(/*showdialpad=*/false);
+    private PendingIntent getLaunchPendingIntent(Intent inCallIntent) {
+        if (mLaunchPendingIntent == null) {
+            mLaunchPendingIntent = createLaunchPendingIntent(inCallIntent);
+        }
+        return mLaunchPendingIntent;
+    }
 
+    private PendingIntent createLaunchPendingIntent(Intent intent) {
         // PendingIntent that can be used to launch the InCallActivity.  The
         // system fires off this intent if the user pulls down the windowshade
         // and clicks the notification's expanded view.  It's also used to
@@ -662,4 +798,62 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
                 context, NotificationBroadcastReceiver.class);
         return PendingIntent.getBroadcast(context, 0, intent, 0);
     }
+
+    /**
+     * Everything that is visible in the in-call notification. Two models that are equal produce
+     * the same notification, so an update can be skipped.
+     */
+    private static final class NotificationModel {
+        static final int NO_SUBSCRIPTION = -1;
+
+        static final int ACTION_HANG_UP = 1 << 0;
+        static final int ACTION_ANSWER = 1 << 1;
+        static final int ACTION_DISMISS = 1 << 2;
+
+        int callState = Call.State.INVALID;
+        int iconResId;
+        int contentResId;
+        // Subscription whose SIM name is appended to the content text, if any.
+        int simNameSubscription = NO_SUBSCRIPTION;
+        String contentTitle;
+        // Compared by identity and generation: a decoded photo may reuse the bitmap of an
+        // earlier one.
+        Bitmap largeIconSource;
+        int largeIconGeneration;
+        boolean conferenceIcon;
+        boolean usesChronometer;
+        long when;
+        int actions;
+        String ticker;
+        boolean fullScreenIntent;
+        boolean cancelBeforeNotify;
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof NotificationModel)) {
+                return false;
+            }
+            final NotificationModel other = (NotificationModel) o;
+            return callState == other.callState
+                    && iconResId == other.iconResId
+                    && contentResId == other.contentResId
+                    && simNameSubscription == other.simNameSubscription
+                    && TextUtils.equals(contentTitle, other.contentTitle)
+                    && largeIconSource == other.largeIconSource
+                    && largeIconGeneration == other.largeIconGeneration
+                    && conferenceIcon == other.conferenceIcon
+                    && usesChronometer == other.usesChronometer
+                    && when == other.when
+                    && actions == other.actions
+                    && TextUtils.equals(ticker, other.ticker)
+                    && fullScreenIntent == other.fullScreenIntent
+                    && cancelBeforeNotify == other.cancelBeforeNotify;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(callState, iconResId, contentResId, contentTitle, when,
+                    actions);
+        }
+    }
 }
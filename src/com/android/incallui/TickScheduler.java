@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+
+package com.android.incallui;
+
+import com.google.android.collect.Lists;
+import com.google.common.base.Preconditions;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+
+/**
+ * Shared main-thread timer for everything in the UI that needs to update at regular intervals,
+ * such as elapsed call time and recording progress.
+ * <p>
+ * Periodic deliveries are aligned to multiples of their interval from a common start time, so
+ * subscribers whose intervals divide each other are called back in the same pass and the main
+ * thread wakes up once per tick instead of once per component. While the in-call UI is not in
+ * the foreground the scheduler is suspended and only subscribers registered with
+ * {@link #FLAG_RUN_WHILE_HIDDEN} keep running; everything else gets one catch-up tick when the
+ * UI returns.
+ */
+public class TickScheduler {
+
+    /** Keep delivering while the in-call UI is not in the foreground. */
+    public static final int FLAG_RUN_WHILE_HIDDEN = 1 << 0;
+    /** Deliver once, {@code interval} ms after subscribing, then drop the subscription. */
+    public static final int FLAG_ONE_SHOT = 1 << 1;
+
+    // Subscribers due within this much of a pass are run in it rather than waking up again.
+    private static final long TICK_SLOP_MS = 20;
+
+    private static final int MSG_TICK = 1;
+
+    public interface TickListener {
+        /**
+         * Called on the main thread.
+         *
+         * @param uptimeMillis time of the pass, in {@link SystemClock#uptimeMillis()}
+         */
+        public void onTick(long uptimeMillis);
+    }
+
+    private static final class Subscription {
+        final TickListener listener;
+        final long interval;
+        final int flags;
+        long nextDue;
+        // Set once unsubscribed or replaced, so a pending pass does not call the listener.
+        boolean cancelled;
+
+        Subscription(TickListener listener, long interval, int flags) {
+            this.listener = listener;
+            this.interval = interval;
+            this.flags = flags;
+        }
+
+        boolean hasFlag(int flag) {
+            return (flags & flag) != 0;
+        }
+    }
+
+    private static TickScheduler sInstance;
+
+    private final ArrayList<Subscription> mSubscriptions = Lists.newArrayList();
+    // Reused by each pass; passes never nest because they only run from mHandler.
+    private final ArrayList<Subscription> mBatch = Lists.newArrayList();
+    private final long mEpoch = SystemClock.uptimeMillis();
+    private boolean mSuspended = true;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper(), new Handler.Callback() {
+        @Override
+        public boolean handleMessage(Message msg) {
+            tick();
+            return true;
+        }
+    });
+
+    public static synchronized TickScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new TickScheduler();
+        }
+        return sInstance;
+    }
+
+    private TickScheduler() {
+    }
+
+    /**
+     * Calls {@code listener} every {@code interval} ms, or once if {@link #FLAG_ONE_SHOT} is set.
+     * Subscribing a listener again with the same interval and flags keeps its current schedule;
+     * otherwise the old subscription is replaced.
+     */
+    public void subscribe(TickListener listener, long interval, int flags) {
+        Preconditions.checkNotNull(listener);
+        Preconditions.checkArgument(interval > 0);
+
+        final Subscription existing = find(listener);
+        if (existing != null) {
+            if (existing.interval == interval && existing.flags == flags) {
+                return;
+            }
+            existing.cancelled = true;
+            mSubscriptions.remove(existing);
+        }
+
+        final Subscription subscription = new Subscription(listener, interval, flags);
+        final long now = SystemClock.uptimeMillis();
+        if (subscription.hasFlag(FLAG_ONE_SHOT)) {
+            subscription.nextDue = now + interval;
+        } else {
+            subscription.nextDue = alignedAfter(now, interval);
+        }
+        mSubscriptions.add(subscription);
+        reschedule();
+    }
+
+    public void unsubscribe(TickListener listener) {
+        final Subscription existing = find(listener);
+        if (existing != null) {
+            existing.cancelled = true;
+            mSubscriptions.remove(existing);
+            reschedule();
+        }
+    }
+
+    /**
+     * Suspends or resumes delivery to subscribers without {@link #FLAG_RUN_WHILE_HIDDEN}.
+     * Called by {@link InCallPresenter} as the in-call UI enters and leaves the foreground.
+     */
+    public void setSuspended(boolean suspended) {
+        if (mSuspended == suspended) {
+            return;
+        }
+        Log.d(this, "setSuspended: " + suspended);
+        mSuspended = suspended;
+
+        if (!suspended) {
+            // Whatever the UI shows may be stale; bring it up to date in the next pass.
+            final long now = SystemClock.uptimeMillis();
+            for (int i = 0; i < mSubscriptions.size(); i++) {
+                final Subscription subscription = mSubscriptions.get(i);
+                if (!subscription.hasFlag(FLAG_RUN_WHILE_HIDDEN)
+                        && !subscription.hasFlag(FLAG_ONE_SHOT)) {
+                    subscription.nextDue = now;
+                }
+            }
+        }
+        reschedule();
+    }
+
+    private void tick() {
+        final long now = SystemClock.uptimeMillis();
+        final long horizon = now + TICK_SLOP_MS;
+
+        for (int i = mSubscriptions.size() - 1; i >= 0; i--) {
+            final Subscription subscription = mSubscriptions.get(i);
+            if (!isActive(subscription) || subscription.nextDue > horizon) {
+                continue;
+            }
+            mBatch.add(subscription);
+            if (subscription.hasFlag(FLAG_ONE_SHOT)) {
+                mSubscriptions.remove(i);
+            } else {
+                subscription.nextDue = alignedAfter(horizon, subscription.interval);
+            }
+        }
+
+        // Listeners may subscribe or unsubscribe from their callback; one that was
+        // unsubscribed earlier in this pass is not called.
+        for (int i = mBatch.size() - 1; i >= 0; i--) {
+            final Subscription subscription = mBatch.get(i);
+            if (!subscription.cancelled) {
+                subscription.listener.onTick(now);
+            }
+        }
+        mBatch.clear();
+
+        reschedule();
+    }
+
+    private void reschedule() {
+        long next = Long.MAX_VALUE;
+        for (int i = 0; i < mSubscriptions.size(); i++) {
+            final Subscription subscription = mSubscriptions.get(i);
+            if (isActive(subscription) && subscription.nextDue < next) {
+                next = subscription.nextDue;
+            }
+        }
+
+        mHandler.removeMessages(MSG_TICK);
+        if (next != Long.MAX_VALUE) {
+            mHandler.sendEmptyMessageAtTime(MSG_TICK, next);
+        }
+    }
+
+    private boolean isActive(Subscription subscription) {
+        return !mSuspended || subscription.hasFlag(FLAG_RUN_WHILE_HIDDEN);
+    }
+
+    /**
+     * Returns the first time after {@code time} that is a whole number of intervals from the
+     * scheduler's start, so that ticks of different subscribers line up.
+     */
+    private long alignedAfter(long time, long interval) {
+        final long elapsed = time - mEpoch;
+        return mEpoch + (elapsed / interval + 1) * interval;
+    }
+
+    private Subscription find(TickListener listener) {
+        for (int i = 0; i < mSubscriptions.size(); i++) {
+            final Subscription subscription = mSubscriptions.get(i);
+            if (subscription.listener == listener) {
+                return subscription;
+            }
+        }
+        return null;
+    }
+}
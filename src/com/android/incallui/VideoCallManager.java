@@ -160,6 +160,13 @@ public class VideoCallManager {
         MediaHandler.setSurface();
     }
 
+    /**
+     * Get negotiated and peer parameters as one consistent set
+     */
+    public MediaHandler.MediaParams getMediaParams() {
+        return MediaHandler.getMediaParams();
+    }
+
     /**
      * Get negotiated height
      */
@@ -326,8 +333,9 @@ public class VideoCallManager {
     }
 
     public float getPeerAspectRatio() {
-        int peerHeight = mMediaHandler.getPeerHeight();
-        int peerWidth = mMediaHandler.getPeerWidth();
+        final MediaHandler.MediaParams params = MediaHandler.getMediaParams();
+        int peerHeight = params.peerHeight;
+        int peerWidth = params.peerWidth;
         //Check for invalid size and divide by zero
         if (peerHeight == INVALID_SIZE || peerWidth == INVALID_SIZE || peerHeight == 0) {
             loge("getPeerAspectRatio ERROR peerHeight=" + peerHeight + " peerWidth=" + peerWidth);
@@ -584,12 +584,13 @@ public class VideoCallPanel extends RelativeLayout implements TextureView.Surfac
                 // camera frames of only the size 176x144 on the far end surface
                 imsCamera.setPreviewSize(LOOPBACK_MODE_WIDTH, LOOPBACK_MODE_HEIGHT);
             } else {
+                // Read all values from one snapshot so they belong to the same negotiation.
+                final MediaHandler.MediaParams params = mVideoCallManager.getMediaParams();
                 log("Set Preview Size directly with negotiated Height = "
-                        + mVideoCallManager.getNegotiatedHeight()
-                        + " negotiated width= " + mVideoCallManager.getNegotiatedWidth());
-                imsCamera.setPreviewSize(mVideoCallManager.getNegotiatedWidth(),
-                        mVideoCallManager.getNegotiatedHeight());
-                imsCamera.setPreviewFpsRange(mVideoCallManager.getNegotiatedFps());
+                        + params.negotiatedHeight
+                        + " negotiated width= " + params.negotiatedWidth);
+                imsCamera.setPreviewSize(params.negotiatedWidth, params.negotiatedHeight);
+                imsCamera.setPreviewFpsRange(params.negotiatedFps);
             }
         } catch (RuntimeException e) {
             loge("Error setting Camera preview size/fps exception=" + e);
@@ -96,6 +96,19 @@ public class GlowPadView extends View {
     private static final float RING_SCALE_EXPANDED = 1.0f;
     private static final float RING_SCALE_COLLAPSED = 0.5f;
 
+    private static final Tweener.FloatProperty<Drawable> DRAWABLE_ALPHA =
+            new Tweener.FloatProperty<Drawable>("alpha") {
+        @Override
+        float get(Drawable drawable) {
+            return drawable.getAlpha();
+        }
+
+        @Override
+        void set(Drawable drawable, float value) {
+            drawable.setAlpha((int) value);
+        }
+    };
+
     private ArrayList<TargetDrawable> mTargetDrawables = new ArrayList<TargetDrawable>();
     private AnimationBundle mWaveAnimations = new AnimationBundle();
     private AnimationBundle mTargetAnimations = new AnimationBundle();
@@ -133,7 +146,7 @@ public class GlowPadView extends View {
             final int count = size();
             for (int i = 0; i < count; i++) {
                 Tweener anim = get(i);
-                anim.animator.start();
+                anim.start();
             }
         }
 
@@ -141,7 +154,7 @@ public class GlowPadView extends View {
             final int count = size();
             for (int i = 0; i < count; i++) {
                 Tweener anim = get(i);
-                anim.animator.cancel();
+                anim.cancel();
             }
             clear();
         }
@@ -150,7 +163,7 @@ public class GlowPadView extends View {
             final int count = size();
             for (int i = 0; i < count; i++) {
                 Tweener anim = get(i);
-                anim.animator.end();
+                anim.end();
             }
             clear();
         }
@@ -177,7 +190,14 @@ public class GlowPadView extends View {
 
     private AnimatorUpdateListener mUpdateListener = new AnimatorUpdateListener() {
         public void onAnimationUpdate(ValueAnimator animation) {
-            invalidate();
+            invalidateRing();
+        }
+    };
+
+    private AnimatorListener mWaveEndListener = new AnimatorListenerAdapter() {
+        public void onAnimationEnd(Animator animator) {
+            mPointCloud.waveManager.setRadius(0.0f);
+            mPointCloud.waveManager.setAlpha(0.0f);
         }
     };
 
@@ -424,11 +444,8 @@ public class GlowPadView extends View {
             AnimatorListener finishListener) {
         mGlowAnimations.cancel();
         mGlowAnimations.add(Tweener.to(mPointCloud.glowManager, duration,
-                "ease", Ease.Cubic.easeIn,
-                "delay", delay,
-                "alpha", finalAlpha,
-                "onUpdate", mUpdateListener,
-                "onComplete", finishListener));
+                Ease.Cubic.easeIn, delay, mUpdateListener, finishListener)
+                .property(PointCloud.GLOW_ALPHA, finalAlpha));
         mGlowAnimations.start();
     }
 
@@ -436,13 +453,10 @@ public class GlowPadView extends View {
             AnimatorListener finishListener) {
         mGlowAnimations.cancel();
         mGlowAnimations.add(Tweener.to(mPointCloud.glowManager, duration,
-                "ease", Ease.Quart.easeOut,
-                "delay", delay,
-                "alpha", finalAlpha,
-                "x", 0.0f,
-                "y", 0.0f,
-                "onUpdate", mUpdateListener,
-                "onComplete", finishListener));
+                Ease.Quart.easeOut, delay, mUpdateListener, finishListener)
+                .property(PointCloud.GLOW_ALPHA, finalAlpha)
+                .property(PointCloud.GLOW_X, 0.0f)
+                .property(PointCloud.GLOW_Y, 0.0f));
         mGlowAnimations.start();
     }
 
@@ -527,25 +541,20 @@ public class GlowPadView extends View {
             TargetDrawable target = mTargetDrawables.get(i);
             target.setState(TargetDrawable.STATE_INACTIVE);
             mTargetAnimations.add(Tweener.to(target, duration,
-                    "ease", interpolator,
-                    "alpha", 0.0f,
-                    "scaleX", targetScale,
-                    "scaleY", targetScale,
-                    "delay", delay,
-                    "onUpdate", mUpdateListener));
+                    interpolator, delay, mUpdateListener, null)
+                    .property(TargetDrawable.ALPHA, 0.0f)
+                    .property(TargetDrawable.SCALE_X, targetScale)
+                    .property(TargetDrawable.SCALE_Y, targetScale));
         }
 
         float ringScaleTarget = expanded ?
                 RING_SCALE_EXPANDED : RING_SCALE_COLLAPSED;
         ringScaleTarget *= mRingScaleFactor;
         mTargetAnimations.add(Tweener.to(mOuterRing, duration,
-                "ease", interpolator,
-                "alpha", 0.0f,
-                "scaleX", ringScaleTarget,
-                "scaleY", ringScaleTarget,
-                "delay", delay,
-                "onUpdate", mUpdateListener,
-                "onComplete", mTargetUpdateListener));
+                interpolator, delay, mUpdateListener, mTargetUpdateListener)
+                .property(TargetDrawable.ALPHA, 0.0f)
+                .property(TargetDrawable.SCALE_X, ringScaleTarget)
+                .property(TargetDrawable.SCALE_Y, ringScaleTarget));
 
         mTargetAnimations.start();
     }
@@ -560,22 +569,17 @@ public class GlowPadView extends View {
             TargetDrawable target = mTargetDrawables.get(i);
             target.setState(TargetDrawable.STATE_INACTIVE);
             mTargetAnimations.add(Tweener.to(target, duration,
-                    "ease", Ease.Cubic.easeOut,
-                    "alpha", 1.0f,
-                    "scaleX", 1.0f,
-                    "scaleY", 1.0f,
-                    "delay", delay,
-                    "onUpdate", mUpdateListener));
+                    Ease.Cubic.easeOut, delay, mUpdateListener, null)
+                    .property(TargetDrawable.ALPHA, 1.0f)
+                    .property(TargetDrawable.SCALE_X, 1.0f)
+                    .property(TargetDrawable.SCALE_Y, 1.0f));
         }
         float ringScale = mRingScaleFactor * RING_SCALE_EXPANDED;
         mTargetAnimations.add(Tweener.to(mOuterRing, duration,
-                "ease", Ease.Cubic.easeOut,
-                "alpha", 1.0f,
-                "scaleX", ringScale,
-                "scaleY", ringScale,
-                "delay", delay,
-                "onUpdate", mUpdateListener,
-                "onComplete", mTargetUpdateListener));
+                Ease.Cubic.easeOut, delay, mUpdateListener, mTargetUpdateListener)
+                .property(TargetDrawable.ALPHA, 1.0f)
+                .property(TargetDrawable.SCALE_X, ringScale)
+                .property(TargetDrawable.SCALE_Y, ringScale));
 
         mTargetAnimations.start();
     }
@@ -729,17 +733,8 @@ public class GlowPadView extends View {
         mPointCloud.waveManager.setAlpha(1.0f);
         mPointCloud.waveManager.setRadius(mHandleDrawable.getWidth()/2.0f);
         mWaveAnimations.add(Tweener.to(mPointCloud.waveManager, WAVE_ANIMATION_DURATION,
-                "ease", Ease.Quad.easeOut,
-                "delay", 0,
-                "radius", 2.0f * mOuterRadius,
-                "onUpdate", mUpdateListener,
-                "onComplete",
-                new AnimatorListenerAdapter() {
-                    public void onAnimationEnd(Animator animator) {
-                        mPointCloud.waveManager.setRadius(0.0f);
-                        mPointCloud.waveManager.setAlpha(0.0f);
-                    }
-                }));
+                Ease.Quad.easeOut, 0, mUpdateListener, mWaveEndListener)
+                .property(PointCloud.WAVE_RADIUS, 2.0f * mOuterRadius));
         mWaveAnimations.start();
     }
 
@@ -763,13 +758,12 @@ public class GlowPadView extends View {
         final Drawable background = getBackground();
         if (mAlwaysTrackFinger && background != null) {
             if (mBackgroundAnimator != null) {
-                mBackgroundAnimator.animator.cancel();
+                mBackgroundAnimator.cancel();
             }
             mBackgroundAnimator = Tweener.to(background, duration,
-                    "ease", Ease.Cubic.easeIn,
-                    "alpha", (int)(255.0f * alpha),
-                    "delay", SHOW_ANIMATION_DELAY);
-            mBackgroundAnimator.animator.start();
+                    Ease.Cubic.easeIn, SHOW_ANIMATION_DELAY, null, null)
+                    .property(DRAWABLE_ALPHA, (int)(255.0f * alpha));
+            mBackgroundAnimator.start();
         }
     }
 
@@ -807,10 +801,22 @@ public class GlowPadView extends View {
                 handled = true;
                 break;
         }
-        invalidate();
+        invalidateRing();
         return handled ? true : super.onTouchEvent(event);
     }
 
+    /**
+     * Invalidates only the area around the ring that the point cloud, targets and handle can
+     * draw into, rather than the whole view. The view is usually much wider than the ring.
+     */
+    private void invalidateRing() {
+        final float halfWidth = getRingWidth() / 2 + mMaxTargetWidth;
+        final float halfHeight = getRingHeight() / 2 + mMaxTargetHeight;
+        invalidate((int) (mWaveCenterX - halfWidth), (int) (mWaveCenterY - halfHeight),
+                (int) Math.ceil(mWaveCenterX + halfWidth),
+                (int) Math.ceil(mWaveCenterY + halfHeight));
+    }
+
     private void updateGlowPosition(float x, float y) {
         float dx = x - mOuterRing.getX();
         float dy = y - mOuterRing.getY();
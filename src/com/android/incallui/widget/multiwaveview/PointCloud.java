@@ -38,6 +38,58 @@ public class PointCloud {
     private float mScale = 1.0f;
     private static final float PI = (float) Math.PI;
 
+    static final Tweener.FloatProperty<WaveManager> WAVE_RADIUS =
+            new Tweener.FloatProperty<WaveManager>("radius") {
+        @Override
+        float get(WaveManager wave) {
+            return wave.getRadius();
+        }
+
+        @Override
+        void set(WaveManager wave, float value) {
+            wave.setRadius(value);
+        }
+    };
+
+    static final Tweener.FloatProperty<GlowManager> GLOW_ALPHA =
+            new Tweener.FloatProperty<GlowManager>("alpha") {
+        @Override
+        float get(GlowManager glow) {
+            return glow.getAlpha();
+        }
+
+        @Override
+        void set(GlowManager glow, float value) {
+            glow.setAlpha(value);
+        }
+    };
+
+    static final Tweener.FloatProperty<GlowManager> GLOW_X =
+            new Tweener.FloatProperty<GlowManager>("x") {
+        @Override
+        float get(GlowManager glow) {
+            return glow.getX();
+        }
+
+        @Override
+        void set(GlowManager glow, float value) {
+            glow.setX(value);
+        }
+    };
+
+    static final Tweener.FloatProperty<GlowManager> GLOW_Y =
+            new Tweener.FloatProperty<GlowManager>("y") {
+        @Override
+        float get(GlowManager glow) {
+            return glow.getY();
+        }
+
+        @Override
+        void set(GlowManager glow, float value) {
+            glow.setY(value);
+        }
+    };
+
     // These allow us to have multiple concurrent animations.
     WaveManager waveManager = new WaveManager();
     GlowManager glowManager = new GlowManager();
@@ -107,11 +159,15 @@ public class PointCloud {
         float x;
         float y;
         float radius;
+        // Fixed for the lifetime of the cloud, so computed once instead of every frame.
+        float distance;
+        float size;
 
         public Point(float x2, float y2, float r) {
             x = (float) x2;
             y = (float) y2;
             radius = r;
+            distance = hypot(x, y);
         }
     }
 
@@ -154,7 +210,9 @@ public class PointCloud {
                 float x = r * FloatMath.cos(eta);
                 float y = r * FloatMath.sin(eta);
                 eta += dEta;
-                mPointCloud.add(new Point(x, y, r));
+                final Point point = new Point(x, y, r);
+                point.size = interp(MAX_POINT_SIZE, MIN_POINT_SIZE, r / outerRadius);
+                mPointCloud.add(point);
             }
         }
     }
@@ -176,49 +234,72 @@ public class PointCloud {
     }
 
     public int getAlphaForPoint(Point point) {
-        // Contribution from positional glow
-        float glowDistance = hypot(glowManager.x - point.x, glowManager.y - point.y);
+        // Contribution from positional glow. Points outside the glow's bounding box are
+        // rejected before computing the distance.
         float glowAlpha = 0.0f;
-
-        if (glowDistance < glowManager.radius) {
-            float cosf = FloatMath.cos(PI * 0.25f * glowDistance / glowManager.radius);
-            glowAlpha = glowManager.alpha * max(0.0f, (float) Math.pow(cosf, 10.0f));
+        if (glowManager.alpha > 0.0f) {
+            final float dx = glowManager.x - point.x;
+            final float dy = glowManager.y - point.y;
+            final float glowRadius = glowManager.radius;
+            if (dx < glowRadius && dx > -glowRadius && dy < glowRadius && dy > -glowRadius) {
+                final float glowDistance = hypot(dx, dy);
+                if (glowDistance < glowRadius) {
+                    float cosf = FloatMath.cos(PI * 0.25f * glowDistance / glowRadius);
+                    glowAlpha = glowManager.alpha * pow10(cosf);
+                }
+            }
         }
 
         // Compute contribution from Wave
-        float radius = hypot(point.x, point.y);
-        float distanceToWaveRing = (radius - waveManager.radius);
         float waveAlpha = 0.0f;
-        if (distanceToWaveRing < waveManager.width * 0.5f && distanceToWaveRing < 0.0f) {
-            float cosf = FloatMath.cos(PI * 0.25f * distanceToWaveRing / waveManager.width);
-            waveAlpha = waveManager.alpha * max(0.0f, (float) Math.pow(cosf, 20.0f));
+        if (waveManager.alpha > 0.0f) {
+            float distanceToWaveRing = (point.distance - waveManager.radius);
+            if (distanceToWaveRing < waveManager.width * 0.5f && distanceToWaveRing < 0.0f) {
+                float cosf = FloatMath.cos(PI * 0.25f * distanceToWaveRing / waveManager.width);
+                final float cos10 = pow10(cosf);
+                waveAlpha = waveManager.alpha * cos10 * cos10;
+            }
         }
 
         return (int) (max(glowAlpha, waveAlpha) * 255);
     }
 
-    private float interp(float min, float max, float f) {
+    /**
+     * Returns f^10; much cheaper than Math.pow on the per-point path.
+     */
+    private static float pow10(float f) {
+        final float f2 = f * f;
+        final float f4 = f2 * f2;
+        return f4 * f4 * f2;
+    }
+
+    private static float interp(float min, float max, float f) {
         return min + (max - min) * f;
     }
 
     public void draw(Canvas canvas) {
+        // Points are only visible while the wave or the glow is showing.
+        if (waveManager.alpha <= 0.0f && glowManager.alpha <= 0.0f) {
+            return;
+        }
+
         ArrayList<Point> points = mPointCloud;
         canvas.save(Canvas.MATRIX_SAVE_FLAG);
         canvas.scale(mScale, mScale, mCenterX, mCenterY);
+        final float cx = mDrawable != null ? mDrawable.getIntrinsicWidth() * 0.5f : 0.0f;
+        final float cy = mDrawable != null ? mDrawable.getIntrinsicHeight() * 0.5f : 0.0f;
         for (int i = 0; i < points.size(); i++) {
             Point point = points.get(i);
-            final float pointSize = interp(MAX_POINT_SIZE, MIN_POINT_SIZE,
-                    point.radius / mOuterRadius);
-            final float px = point.x + mCenterX;
-            final float py = point.y + mCenterY;
             int alpha = getAlphaForPoint(point);
 
             if (alpha == 0) continue;
 
+            final float pointSize = point.size;
+            final float px = point.x + mCenterX;
+            final float py = point.y + mCenterY;
+
             if (mDrawable != null) {
                 canvas.save(Canvas.MATRIX_SAVE_FLAG);
-                final float cx = mDrawable.getIntrinsicWidth() * 0.5f;
-                final float cy = mDrawable.getIntrinsicHeight() * 0.5f;
                 final float s = pointSize / MAX_POINT_SIZE;
                 canvas.scale(s, s, px, py);
                 canvas.translate(px - cx, py - cy);
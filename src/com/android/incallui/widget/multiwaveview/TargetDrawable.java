@@ -35,6 +35,45 @@ public class TargetDrawable {
             { android.R.attr.state_enabled, -android.R.attr.state_active,
                 android.R.attr.state_focused };
 
+    static final Tweener.FloatProperty<TargetDrawable> ALPHA =
+            new Tweener.FloatProperty<TargetDrawable>("alpha") {
+        @Override
+        float get(TargetDrawable target) {
+            return target.getAlpha();
+        }
+
+        @Override
+        void set(TargetDrawable target, float value) {
+            target.setAlpha(value);
+        }
+    };
+
+    static final Tweener.FloatProperty<TargetDrawable> SCALE_X =
+            new Tweener.FloatProperty<TargetDrawable>("scaleX") {
+        @Override
+        float get(TargetDrawable target) {
+            return target.getScaleX();
+        }
+
+        @Override
+        void set(TargetDrawable target, float value) {
+            target.setScaleX(value);
+        }
+    };
+
+    static final Tweener.FloatProperty<TargetDrawable> SCALE_Y =
+            new Tweener.FloatProperty<TargetDrawable>("scaleY") {
+        @Override
+        float get(TargetDrawable target) {
+            return target.getScaleY();
+        }
+
+        @Override
+        void set(TargetDrawable target, float value) {
+            target.setScaleY(value);
+        }
+    };
+
     private float mTranslationX = 0.0f;
     private float mTranslationY = 0.0f;
     private float mPositionX = 0.0f;
@@ -18,138 +18,187 @@ package com.android.incallui.widget.multiwaveview;
 
 import android.animation.Animator;
 import android.animation.Animator.AnimatorListener;
-import android.animation.AnimatorListenerAdapter;
-import android.animation.ObjectAnimator;
-import android.animation.PropertyValuesHolder;
 import android.animation.TimeInterpolator;
+import android.animation.ValueAnimator;
 import android.animation.ValueAnimator.AnimatorUpdateListener;
 import android.util.Log;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map.Entry;
-
-class Tweener {
+import java.util.Arrays;
+import java.util.WeakHashMap;
+
+/**
+ * Animates float properties of an object. There is one Tweener per animated object, and it is
+ * reused for every animation of that object: its animator runs from 0 to 1 and the properties
+ * are interpolated directly through {@link FloatProperty} setters, so starting a tween does not
+ * parse arguments, box values, use reflection or allocate animators and value holders.
+ * <p>
+ * A new tween replaces (and cancels) the one running on the same object. Start values are read
+ * from the object when the animation actually starts, i.e. after its start delay.
+ */
+class Tweener implements AnimatorListener, AnimatorUpdateListener {
     private static final String TAG = "Tweener";
     private static final boolean DEBUG = false;
 
-    ObjectAnimator animator;
-    private static HashMap<Object, Tweener> sTweens = new HashMap<Object, Tweener>();
+    /**
+     * A float property of an object that can be tweened.
+     */
+    abstract static class FloatProperty<T> {
+        final String name;
 
-    public Tweener(ObjectAnimator anim) {
-        animator = anim;
-    }
-
-    private static void remove(Animator animator) {
-        Iterator<Entry<Object, Tweener>> iter = sTweens.entrySet().iterator();
-        while (iter.hasNext()) {
-            Entry<Object, Tweener> entry = iter.next();
-            if (entry.getValue().animator == animator) {
-                if (DEBUG) Log.v(TAG, "Removing tweener " + sTweens.get(entry.getKey())
-                        + " sTweens.size() = " + sTweens.size());
-                iter.remove();
-                break; // an animator can only be attached to one object
-            }
+        FloatProperty(String name) {
+            this.name = name;
         }
+
+        abstract float get(T object);
+
+        abstract void set(T object, float value);
     }
 
-    public static Tweener to(Object object, long duration, Object... vars) {
-        long delay = 0;
-        AnimatorUpdateListener updateListener = null;
-        AnimatorListener listener = null;
-        TimeInterpolator interpolator = null;
-
-        // Iterate through arguments and discover properties to animate
-        ArrayList<PropertyValuesHolder> props = new ArrayList<PropertyValuesHolder>(vars.length/2);
-        for (int i = 0; i < vars.length; i+=2) {
-            if (!(vars[i] instanceof String)) {
-                throw new IllegalArgumentException("Key must be a string: " + vars[i]);
-            }
-            String key = (String) vars[i];
-            Object value = vars[i+1];
-
-            if ("simultaneousTween".equals(key)) {
-                // TODO
-            } else if ("ease".equals(key)) {
-                interpolator = (TimeInterpolator) value; // TODO: multiple interpolators?
-            } else if ("onUpdate".equals(key) || "onUpdateListener".equals(key)) {
-                updateListener = (AnimatorUpdateListener) value;
-            } else if ("onComplete".equals(key) || "onCompleteListener".equals(key)) {
-                listener = (AnimatorListener) value;
-            } else if ("delay".equals(key)) {
-                delay = ((Number) value).longValue();
-            } else if ("syncWith".equals(key)) {
-                // TODO
-            } else if (value instanceof float[]) {
-                props.add(PropertyValuesHolder.ofFloat(key,
-                        ((float[])value)[0], ((float[])value)[1]));
-            } else if (value instanceof int[]) {
-                props.add(PropertyValuesHolder.ofInt(key,
-                        ((int[])value)[0], ((int[])value)[1]));
-            } else if (value instanceof Number) {
-                float floatValue = ((Number)value).floatValue();
-                props.add(PropertyValuesHolder.ofFloat(key, floatValue));
-            } else {
-                throw new IllegalArgumentException(
-                        "Bad argument for key \"" + key + "\" with value " + value.getClass());
-            }
-        }
+    // Weak so that an object and its tween can be collected once the tween has let go of the
+    // object and of the listeners, which usually belong to the object's owner; see
+    // onAnimationEnd().
+    private static final WeakHashMap<Object, Tweener> sTweens = new WeakHashMap<Object, Tweener>();
+
+    final ValueAnimator animator;
+
+    // Only set while the object is being animated, like the listeners; see onAnimationEnd().
+    private Object mTarget;
+    private int mBinding;
+    private FloatProperty[] mProperties = new FloatProperty[4];
+    private float[] mFromValues = new float[4];
+    private float[] mToValues = new float[4];
+    private int mCount;
+    private boolean mNeedsStartValues;
+    private AnimatorUpdateListener mUpdateListener;
+    private AnimatorListener mListener;
+
+    private Tweener() {
+        animator = ValueAnimator.ofFloat(0.0f, 1.0f);
+        animator.addUpdateListener(this);
+        animator.addListener(this);
+    }
 
-        // Re-use existing tween, if present
+    /**
+     * Sets up a tween of the object, replacing any tween already running on it. Add the
+     * properties to animate with {@link #property}, then {@link #start} it.
+     *
+     * @param onUpdate Called after every frame has been applied to the object, may be null.
+     * @param onComplete Receives the animator events of this tween, may be null.
+     */
+    public static Tweener to(Object object, long duration, TimeInterpolator ease, long delay,
+            AnimatorUpdateListener onUpdate, AnimatorListener onComplete) {
         Tweener tween = sTweens.get(object);
-        ObjectAnimator anim = null;
         if (tween == null) {
-            anim = ObjectAnimator.ofPropertyValuesHolder(object,
-                    props.toArray(new PropertyValuesHolder[props.size()]));
-            tween = new Tweener(anim);
+            tween = new Tweener();
             sTweens.put(object, tween);
-            if (DEBUG) Log.v(TAG, "Added new Tweener " + tween);
+            if (DEBUG) Log.v(TAG, "Added new Tweener " + tween + " sTweens.size() = "
+                    + sTweens.size());
         } else {
-            anim = sTweens.get(object).animator;
-            replace(props, object); // Cancel all animators for given object
+            // Delivered to the listener of the tween that is being replaced.
+            tween.animator.cancel();
         }
 
-        if (interpolator != null) {
-            anim.setInterpolator(interpolator);
+        tween.mTarget = object;
+        tween.mBinding++;
+        tween.mCount = 0;
+        tween.mNeedsStartValues = true;
+        tween.mUpdateListener = onUpdate;
+        tween.mListener = onComplete;
+        tween.animator.setInterpolator(ease);
+        tween.animator.setStartDelay(delay);
+        tween.animator.setDuration(duration);
+        return tween;
+    }
+
+    /**
+     * Animates the property from its value at start time to the given value.
+     */
+    public <T> Tweener property(FloatProperty<T> property, float value) {
+        if (mCount == mProperties.length) {
+            mProperties = Arrays.copyOf(mProperties, mCount * 2);
+            mFromValues = Arrays.copyOf(mFromValues, mCount * 2);
+            mToValues = Arrays.copyOf(mToValues, mCount * 2);
         }
+        mProperties[mCount] = property;
+        mToValues[mCount] = value;
+        mCount++;
+        return this;
+    }
+
+    public void start() {
+        mNeedsStartValues = true;
+        animator.start();
+    }
+
+    public void cancel() {
+        animator.cancel();
+    }
+
+    public void end() {
+        animator.end();
+    }
 
-        // Update animation with properties discovered in loop above
-        anim.setStartDelay(delay);
-        anim.setDuration(duration);
-        if (updateListener != null) {
-            anim.removeAllUpdateListeners(); // There should be only one
-            anim.addUpdateListener(updateListener);
+    @SuppressWarnings("unchecked")
+    @Override
+    public void onAnimationUpdate(ValueAnimator animation) {
+        final Object target = mTarget;
+        if (target == null) {
+            return;
         }
-        if (listener != null) {
-            anim.removeAllListeners(); // There should be only one.
-            anim.addListener(listener);
+        final int count = mCount;
+        if (mNeedsStartValues) {
+            mNeedsStartValues = false;
+            for (int i = 0; i < count; i++) {
+                mFromValues[i] = mProperties[i].get(target);
+            }
+        }
+        final float fraction = animation.getAnimatedFraction();
+        for (int i = 0; i < count; i++) {
+            final float from = mFromValues[i];
+            mProperties[i].set(target, from + (mToValues[i] - from) * fraction);
+        }
+        if (mUpdateListener != null) {
+            mUpdateListener.onAnimationUpdate(animation);
         }
-        anim.addListener(mCleanupListener);
-
-        return tween;
     }
 
-    Tweener from(Object object, long duration, Object... vars) {
-        // TODO:  for v of vars
-        //            toVars[v] = object[v]
-        //            object[v] = vars[v]
-        return Tweener.to(object, duration, vars);
+    @Override
+    public void onAnimationStart(Animator animation) {
+        if (mListener != null) {
+            mListener.onAnimationStart(animation);
+        }
     }
 
-    // Listener to watch for completed animations and remove them.
-    private static AnimatorListener mCleanupListener = new AnimatorListenerAdapter() {
+    @Override
+    public void onAnimationEnd(Animator animation) {
+        final int binding = mBinding;
+        if (mListener != null) {
+            mListener.onAnimationEnd(animation);
+        }
+        // Let go of the object and the listeners, unless the listener has already set up the
+        // next tween. The listeners usually reference the object's owner, which would otherwise
+        // keep the object, and with it this tween, reachable.
+        if (binding == mBinding) {
+            if (DEBUG) Log.v(TAG, "Releasing target of tweener " + this);
+            mTarget = null;
+            mUpdateListener = null;
+            mListener = null;
+        }
+    }
 
-        @Override
-        public void onAnimationEnd(Animator animation) {
-            remove(animation);
+    @Override
+    public void onAnimationCancel(Animator animation) {
+        if (mListener != null) {
+            mListener.onAnimationCancel(animation);
         }
+    }
 
-        @Override
-        public void onAnimationCancel(Animator animation) {
-            remove(animation);
+    @Override
+    public void onAnimationRepeat(Animator animation) {
+        if (mListener != null) {
+            mListener.onAnimationRepeat(animation);
         }
-    };
+    }
 
     public static void reset() {
         if (DEBUG) {
@@ -160,19 +209,4 @@ class Tweener {
         }
         sTweens.clear();
     }
-
-    private static void replace(ArrayList<PropertyValuesHolder> props, Object... args) {
-        for (final Object killobject : args) {
-            Tweener tween = sTweens.get(killobject);
-            if (tween != null) {
-                tween.animator.cancel();
-                if (props != null) {
-                    tween.animator.setValues(
-                            props.toArray(new PropertyValuesHolder[props.size()]));
-                } else {
-                    sTweens.remove(tween);
-                }
-            }
-        }
-    }
 }
@@ -33,6 +33,8 @@
 #include <cutils/log.h>
 #include <cutils/properties.h>
 #include <dlfcn.h>
+#include <pthread.h>
+#include <semaphore.h>
 #include <stdlib.h>
 #include "videophone_impl.h"
 
@@ -40,6 +42,71 @@ extern JavaVM *jvmPtr;
 static VtImplApis *vt_apis = NULL;
 static jobject mediaHandlerObject = NULL;
 
+/*
+ * Media events are queued by the IMS library thread and delivered to Java by one
+ * persistent event thread that stays attached to the VM, instead of attaching and
+ * detaching the library thread on every event.
+ *
+ * The queue is a bounded multi-producer, single-consumer ring. Each slot carries a
+ * sequence number: a producer claims a slot with a CAS on the write index and publishes
+ * it by advancing the slot sequence, so enqueueing never blocks.
+ */
+#define EVENT_QUEUE_SIZE 64 /* must be a power of two */
+#define EVENT_QUEUE_MASK (EVENT_QUEUE_SIZE - 1)
+
+struct MediaEventSlot {
+    uint32_t seq;
+    uint16_t eventId;
+};
+
+static MediaEventSlot eventQueue[EVENT_QUEUE_SIZE];
+static uint32_t eventWriteIndex = 0;
+static uint32_t eventReadIndex = 0; /* only used by the event thread */
+static sem_t eventSem;
+static pthread_t eventThread;
+// Started by the first registration and kept for the life of the process: the IMS library
+// has no way to unregister the event callback, so it may call onMediaEvent() at any time.
+static bool eventThreadRunning = false;
+
+static void eventQueueInit() {
+    for (uint32_t i = 0; i < EVENT_QUEUE_SIZE; i++) {
+        __atomic_store_n(&eventQueue[i].seq, i, __ATOMIC_RELAXED);
+    }
+    __atomic_store_n(&eventWriteIndex, 0, __ATOMIC_RELAXED);
+    eventReadIndex = 0;
+}
+
+static bool eventQueuePush(uint16_t eventId) {
+    uint32_t pos = __atomic_load_n(&eventWriteIndex, __ATOMIC_RELAXED);
+    for (;;) {
+        MediaEventSlot *slot = &eventQueue[pos & EVENT_QUEUE_MASK];
+        int32_t diff = (int32_t) (__atomic_load_n(&slot->seq, __ATOMIC_ACQUIRE) - pos);
+        if (diff == 0) {
+            if (__atomic_compare_exchange_n(&eventWriteIndex, &pos, pos + 1, true,
+                    __ATOMIC_RELAXED, __ATOMIC_RELAXED)) {
+                slot->eventId = eventId;
+                __atomic_store_n(&slot->seq, pos + 1, __ATOMIC_RELEASE);
+                return true;
+            }
+        } else if (diff < 0) {
+            return false; /* full */
+        } else {
+            pos = __atomic_load_n(&eventWriteIndex, __ATOMIC_RELAXED);
+        }
+    }
+}
+
+static bool eventQueuePop(uint16_t *eventId) {
+    MediaEventSlot *slot = &eventQueue[eventReadIndex & EVENT_QUEUE_MASK];
+    if (__atomic_load_n(&slot->seq, __ATOMIC_ACQUIRE) != eventReadIndex + 1) {
+        return false; /* empty */
+    }
+    *eventId = slot->eventId;
+    __atomic_store_n(&slot->seq, eventReadIndex + EVENT_QUEUE_SIZE, __ATOMIC_RELEASE);
+    eventReadIndex++;
+    return true;
+}
+
 static jint dpl_init(JNIEnv *e, jobject o) {
     ALOGD("%s", __func__);
     jint error = -1;
@@ -90,108 +157,123 @@ static void dpl_setDeviceOrientation(JNIEnv *e, jobject o, jint orientation) {
     }
 }
 
-static short dpl_getNegotiatedFPS(JNIEnv *e, jobject o) {
-    short def = 20;
-    ALOGD("%s", __func__);
-
-    if (vt_apis && vt_apis->getNegotiatedFPS) {
-        return vt_apis->getNegotiatedFPS();
-    }
-    return def;
+// Layout of the array filled by dpl_getMediaParams, must match MediaHandler.java
+#define PARAM_NEGOTIATED_WIDTH    0
+#define PARAM_NEGOTIATED_HEIGHT   1
+#define PARAM_NEGOTIATED_FPS      2
+#define PARAM_UI_ORIENTATION_MODE 3
+#define PARAM_PEER_WIDTH          4
+#define PARAM_PEER_HEIGHT         5
+#define PARAM_COUNT               6
+
+static jint getParamOrDefault(VtImplUint32VoidFunc getter, jint def) {
+    return getter ? (jint) getter() : def;
 }
 
-static int dpl_getNegotiatedHeight(JNIEnv *e, jobject o) {
-    int def = 240;
+static void dpl_getMediaParams(JNIEnv *e, jobject o, jintArray params) {
+    jint values[PARAM_COUNT] = { 320, 240, 20, -1, -1, -1 };
     ALOGD("%s", __func__);
 
-    if (vt_apis && vt_apis->getNegotiatedHeight) {
-        return vt_apis->getNegotiatedHeight();
+    if (params == NULL || e->GetArrayLength(params) < PARAM_COUNT) {
+        ALOGE("%s: params array too small", __func__);
+        return;
     }
-    return def;
-}
-
-static int dpl_getNegotiatedWidth(JNIEnv *e, jobject o) {
-    int def = 320;
-    ALOGD("%s", __func__);
 
-    if(vt_apis && vt_apis->getNegotiatedWidth) {
-        return vt_apis->getNegotiatedWidth();
+    if (vt_apis) {
+        values[PARAM_NEGOTIATED_WIDTH] = getParamOrDefault(vt_apis->getNegotiatedWidth,
+                values[PARAM_NEGOTIATED_WIDTH]);
+        values[PARAM_NEGOTIATED_HEIGHT] = getParamOrDefault(vt_apis->getNegotiatedHeight,
+                values[PARAM_NEGOTIATED_HEIGHT]);
+        values[PARAM_NEGOTIATED_FPS] = getParamOrDefault(vt_apis->getNegotiatedFPS,
+                values[PARAM_NEGOTIATED_FPS]);
+        values[PARAM_UI_ORIENTATION_MODE] = getParamOrDefault(vt_apis->getUIOrientationMode,
+                values[PARAM_UI_ORIENTATION_MODE]);
+        values[PARAM_PEER_WIDTH] = getParamOrDefault(vt_apis->getPeerWidth,
+                values[PARAM_PEER_WIDTH]);
+        values[PARAM_PEER_HEIGHT] = getParamOrDefault(vt_apis->getPeerHeight,
+                values[PARAM_PEER_HEIGHT]);
     }
-    return def;
-}
 
-static int dpl_getUIOrientationMode(JNIEnv *e, jobject o) {
-    int def = -1;
-    ALOGD("%s", __func__);
-
-    if(vt_apis && vt_apis->getUIOrientationMode) {
-        return vt_apis->getUIOrientationMode();
-    }
-    return def;
+    e->SetIntArrayRegion(params, 0, PARAM_COUNT, values);
 }
 
-static int dpl_getPeerHeight(JNIEnv *e, jobject o) {
-    int def = -1;
-    ALOGD("%s", __func__);
 
-    if (vt_apis && vt_apis->getPeerHeight) {
-        return vt_apis->getPeerHeight();
+static void onMediaEvent(uint16_t eventId) {
+    if (!__atomic_load_n(&eventThreadRunning, __ATOMIC_ACQUIRE)) {
+        ALOGE("%s: no event thread, dropping event %d", __func__, eventId);
+        return;
+    }
+    if (!eventQueuePush(eventId)) {
+        ALOGE("%s: event queue full, dropping event %d", __func__, eventId);
+        return;
     }
-    return def;
+    sem_post(&eventSem);
 }
 
-static int dpl_getPeerWidth(JNIEnv *e, jobject o) {
-    int def = -1;
-    ALOGD("%s", __func__);
-
-    if(vt_apis && vt_apis->getPeerWidth) {
-        return vt_apis->getPeerWidth();
+static void deliverQueuedEvents(JNIEnv *e, jmethodID mid) {
+    uint16_t eventId;
+    while (eventQueuePop(&eventId)) {
+        ALOGD("%s: event %d", __func__, eventId);
+        if (mid != 0 && mediaHandlerObject != NULL) {
+            e->CallVoidMethod(mediaHandlerObject, mid, (int) eventId);
+            if (e->ExceptionCheck()) {
+                ALOGE("%s: exception delivering event %d", __func__, eventId);
+                e->ExceptionClear();
+            }
+        }
     }
-    return def;
 }
 
-
-static void onMediaEvent(uint16_t eventId) {
-    bool threadAttached = false;
-
-    ALOGD("%s", __func__);
+static void *mediaEventLoop(void *arg) {
     JNIEnv *e;
-    if (jvmPtr->GetEnv((void **) &e, JNI_VERSION_1_6) != JNI_OK) {
-        ALOGD("Attaching IMS thread");
-        if (jvmPtr->AttachCurrentThread(&e, NULL) != JNI_OK) {
-            ALOGE("videocall callback: AttachCurrentThread error");
-            return;
-        }
-        threadAttached = true;
+    JavaVMAttachArgs attachArgs = { JNI_VERSION_1_6, (char *) "MediaEventNative", NULL };
+
+    if (jvmPtr->AttachCurrentThread(&e, &attachArgs) != JNI_OK) {
+        ALOGE("%s: AttachCurrentThread error", __func__);
+        return NULL;
     }
 
-    if(gClassMediaHandler) {
-        jmethodID mid = e->GetMethodID(gClassMediaHandler, "onMediaEvent", "(I)V");
-        if (mid == 0) {
-            ALOGE("videocall callback: GetMethodID error");
-            return;
-        }
+    jmethodID mid = e->GetMethodID(gClassMediaHandler, "onMediaEvent", "(I)V");
+    if (mid == 0) {
+        ALOGE("videocall callback: GetMethodID error");
+    }
 
-        e->CallVoidMethod(mediaHandlerObject, mid, (int) eventId);
+    for (;;) {
+        sem_wait(&eventSem);
+        deliverQueuedEvents(e, mid);
     }
-    else {
+    return NULL;
+}
+
+static void startMediaEventThread() {
+    if (eventThreadRunning) return;
+    if (!gClassMediaHandler) {
         ALOGE("Error: gClassMediaHandler is null.");
+        return;
     }
 
-    if (threadAttached) {
-        jvmPtr->DetachCurrentThread();
-        ALOGD("Detached current thread");
+    eventQueueInit();
+    sem_init(&eventSem, 0, 0);
+    if (pthread_create(&eventThread, NULL, mediaEventLoop, NULL) != 0) {
+        ALOGE("%s: pthread_create failed", __func__);
+        sem_destroy(&eventSem);
+        return;
     }
+    __atomic_store_n(&eventThreadRunning, true, __ATOMIC_RELEASE);
 }
 
 static void dpl_registerForImsEvent(JNIEnv *e, jobject o, jobject objMediaHandler) {
     ALOGD("%s", __func__);
+
+    //Cache the MediaHandler instance before any event can be delivered
+    if (mediaHandlerObject == NULL) {
+        mediaHandlerObject = e->NewGlobalRef(objMediaHandler);
+    }
+    startMediaEventThread();
+
     if (vt_apis && vt_apis->registerAppEventCallback) {
         vt_apis->registerAppEventCallback(&onMediaEvent);
     }
-
-    //Cache the MediaHandler instance
-    mediaHandlerObject = (jclass) e->NewGlobalRef(objMediaHandler);
 }
 
 static JNINativeMethod sMethods[] =
@@ -201,12 +283,7 @@ static JNINativeMethod sMethods[] =
     {"nativeHandleRawFrame", "([B)V", (void *)dpl_handleRawFrame},
     {"nativeSetSurface", "(Landroid/graphics/SurfaceTexture;)I", (void *)dpl_setSurface},
     {"nativeSetDeviceOrientation", "(I)V", (void *)dpl_setDeviceOrientation},
-    {"nativeGetNegotiatedFPS", "()S", (void *)dpl_getNegotiatedFPS},
-    {"nativeGetNegotiatedHeight", "()I", (void *)dpl_getNegotiatedHeight},
-    {"nativeGetNegotiatedWidth", "()I", (void *)dpl_getNegotiatedWidth},
-    {"nativeGetUIOrientationMode", "()I", (void *)dpl_getUIOrientationMode},
-    {"nativeGetPeerHeight", "()I", (void *)dpl_getPeerHeight},
-    {"nativeGetPeerWidth", "()I", (void *)dpl_getPeerWidth},
+    {"nativeGetMediaParams", "([I)V", (void *)dpl_getMediaParams},
     {"nativeRegisterForMediaEvents", "(Lcom/android/incallui/MediaHandler;)V"
         , (void *)dpl_registerForImsEvent}
 };